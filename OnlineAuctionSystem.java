@@ -1,63 +1,511 @@
 // Java code to demonstrate an Online Auction System
 
 // Import necessary packages
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.UUID;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// IdGenerator class handing out 64-bit IDs for users, items and auctions. An ID is
+// [42 bits milliseconds since 2024-01-01][12 bits thread slot][10 bits sequence], so
+// IDs sort by creation time and each thread generates its own from a slot it holds
+// until it dies. A thread that uses up its 1024 IDs in one millisecond moves on to
+// the next millisecond early, and one whose clock steps back keeps counting from
+// where it was. A slot given up by a dead thread goes to a new thread only after the
+// last millisecond the old one used, so no ID is ever handed out twice.
+// Outside the system an ID travels as 13 characters of Crockford base32, which sort
+// the same way as the numbers.
+class IdGenerator {
+    private static final long EPOCH_MILLIS = 1_704_067_200_000L; // 2024-01-01T00:00:00Z
+    private static final int SLOT_BITS = 12;
+    private static final int SEQUENCE_BITS = 10;
+    private static final int MAX_SEQUENCE = (1 << SEQUENCE_BITS) - 1;
+    private static final int ID_CHARS = 13;
+    private static final char[] DIGITS = "0123456789abcdefghjkmnpqrstvwxyz".toCharArray();
+    private static final byte[] VALUES = new byte[128];
+    private static final AtomicInteger NEXT_SLOT = new AtomicInteger();
+    private static final AtomicReferenceArray<Thread> OWNERS = new AtomicReferenceArray<>(1 << SLOT_BITS);
+    private static final AtomicLongArray SLOT_MILLIS = new AtomicLongArray(1 << SLOT_BITS); // last used
+    private static final ThreadLocal<State> STATE = ThreadLocal.withInitial(State::new);
+    
+    static {
+        Arrays.fill(VALUES, (byte) -1);
+        for (int i = 0; i < DIGITS.length; i++) {
+            VALUES[DIGITS[i]] = (byte) i;
+            VALUES[Character.toUpperCase(DIGITS[i])] = (byte) i;
+        }
+    }
+    
+    // A new owner carries on from the old owner's last millisecond with its sequence
+    // used up, so its first ID is in a later millisecond than any the old owner made
+    private static final class State {
+        final int slot = claimSlot();
+        long millis = SLOT_MILLIS.get(slot);
+        int sequence = MAX_SEQUENCE;
+    }
+    
+    // Scans round-robin for a slot that is free or whose owner has died; seeing the
+    // owner dead also makes everything it published visible
+    private static int claimSlot() {
+        Thread current = Thread.currentThread();
+        int start = NEXT_SLOT.getAndIncrement();
+        for (int i = 0; i < OWNERS.length(); i++) {
+            int slot = (start + i) & (OWNERS.length() - 1);
+            Thread owner = OWNERS.get(slot);
+            if ((owner == null || !owner.isAlive()) && OWNERS.compareAndSet(slot, owner, current)) {
+                return slot;
+            }
+        }
+        throw new IllegalStateException("All " + OWNERS.length() + " ID slots are held by live threads");
+    }
+    
+    public static long nextId() {
+        State state = STATE.get();
+        long now = System.currentTimeMillis() - EPOCH_MILLIS;
+        if (now > state.millis) {
+            state.millis = now;
+            state.sequence = 0;
+            SLOT_MILLIS.lazySet(state.slot, now);
+        } else if (++state.sequence > MAX_SEQUENCE) {
+            state.millis++;
+            state.sequence = 0;
+            SLOT_MILLIS.lazySet(state.slot, state.millis);
+        }
+        return state.millis << (SLOT_BITS + SEQUENCE_BITS) | (long) state.slot << SEQUENCE_BITS | state.sequence;
+    }
+    
+    public static String format(long id) {
+        char[] chars = new char[ID_CHARS];
+        for (int i = ID_CHARS - 1; i >= 0; i--) {
+            chars[i] = DIGITS[(int) (id & 31)];
+            id >>>= 5;
+        }
+        return new String(chars);
+    }
+    
+    // The ID a string stands for, or 0 (never a generated ID) if it is not one
+    public static long parse(String id) {
+        if (id == null || id.length() != ID_CHARS) {
+            return 0;
+        }
+        long value = 0;
+        for (int i = 0; i < ID_CHARS; i++) {
+            char c = id.charAt(i);
+            int digit = c < VALUES.length ? VALUES[c] : -1;
+            if (digit < 0) {
+                return 0;
+            }
+            value = value << 5 | digit;
+        }
+        // 13 characters carry 65 bits; the first may only use the low four
+        return VALUES[id.charAt(0)] < 16 ? value : 0;
+    }
+}
+
+// LongMap class: a concurrent map from long keys to values without boxing. Keys are
+// spread over segments, each an open-addressing table with linear probing guarded by
+// a StampedLock. Reads are optimistic and lock-free unless a writer to the same
+// segment interferes, in which case they retry under the read lock. Key 0 is reserved
+// as the empty marker and is never stored.
+class LongMap<V> {
+    private static final int SEGMENT_BITS = 6;
+    private static final int INITIAL_CAPACITY = 16;
+    
+    private static final class Segment {
+        final StampedLock lock = new StampedLock();
+        long[] keys = new long[INITIAL_CAPACITY];
+        Object[] values = new Object[INITIAL_CAPACITY];
+        int size;
+    }
+    
+    private final Segment[] segments;
+    
+    public LongMap() {
+        this.segments = new Segment[1 << SEGMENT_BITS];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment();
+        }
+    }
+    
+    public V get(long key) {
+        if (key == 0) {
+            return null;
+        }
+        long hash = mix(key);
+        Segment segment = segments[(int) (hash >>> (64 - SEGMENT_BITS))];
+        long stamp = segment.lock.tryOptimisticRead();
+        if (stamp != 0) {
+            Object value = find(segment.keys, segment.values, key, hash);
+            if (segment.lock.validate(stamp)) {
+                return cast(value);
+            }
+        }
+        stamp = segment.lock.readLock();
+        try {
+            return cast(find(segment.keys, segment.values, key, hash));
+        } finally {
+            segment.lock.unlockRead(stamp);
+        }
+    }
+    
+    public V put(long key, V value) {
+        return update(key, value, false);
+    }
+    
+    public V putIfAbsent(long key, V value) {
+        return update(key, value, true);
+    }
+    
+    public V remove(long key) {
+        if (key == 0) {
+            return null;
+        }
+        long hash = mix(key);
+        Segment segment = segments[(int) (hash >>> (64 - SEGMENT_BITS))];
+        long stamp = segment.lock.writeLock();
+        try {
+            long[] keys = segment.keys;
+            Object[] values = segment.values;
+            int mask = keys.length - 1;
+            int index = (int) hash & mask;
+            while (keys[index] != key) {
+                if (keys[index] == 0) {
+                    return null;
+                }
+                index = (index + 1) & mask;
+            }
+            V previous = cast(values[index]);
+            // Backward-shift deletion: pull later entries of the probe run into the gap
+            int gap = index;
+            for (int next = (gap + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+                int home = (int) mix(keys[next]) & mask;
+                if (((next - home) & mask) >= ((next - gap) & mask)) {
+                    keys[gap] = keys[next];
+                    values[gap] = values[next];
+                    gap = next;
+                }
+            }
+            keys[gap] = 0;
+            values[gap] = null;
+            segment.size--;
+            return previous;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+    
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            long stamp = segment.lock.readLock();
+            size += segment.size;
+            segment.lock.unlockRead(stamp);
+        }
+        return size;
+    }
+    
+    // A copy of the values, consistent per segment
+    public List<V> values() {
+        List<V> result = new ArrayList<>();
+        for (Segment segment : segments) {
+            long stamp = segment.lock.readLock();
+            try {
+                for (Object value : segment.values) {
+                    if (value != null) {
+                        result.add(cast(value));
+                    }
+                }
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+        return result;
+    }
+    
+    private V update(long key, V value, boolean onlyIfAbsent) {
+        if (key == 0) {
+            throw new IllegalArgumentException("Key 0 is reserved");
+        }
+        long hash = mix(key);
+        Segment segment = segments[(int) (hash >>> (64 - SEGMENT_BITS))];
+        long stamp = segment.lock.writeLock();
+        try {
+            long[] keys = segment.keys;
+            int mask = keys.length - 1;
+            int index = (int) hash & mask;
+            while (keys[index] != 0) {
+                if (keys[index] == key) {
+                    V previous = cast(segment.values[index]);
+                    if (!onlyIfAbsent) {
+                        segment.values[index] = value;
+                    }
+                    return previous;
+                }
+                index = (index + 1) & mask;
+            }
+            keys[index] = key;
+            segment.values[index] = value;
+            // Keep the load factor at most one half
+            if (++segment.size * 2 > keys.length) {
+                resize(segment);
+            }
+            return null;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+    
+    // Readers racing with the resize may still probe the old arrays, which are left
+    // intact, and fail validation afterwards
+    private static void resize(Segment segment) {
+        long[] keys = new long[segment.keys.length * 2];
+        Object[] values = new Object[keys.length];
+        int mask = keys.length - 1;
+        for (int i = 0; i < segment.keys.length; i++) {
+            long key = segment.keys[i];
+            if (key != 0) {
+                int index = (int) mix(key) & mask;
+                while (keys[index] != 0) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = key;
+                values[index] = segment.values[i];
+            }
+        }
+        segment.keys = keys;
+        segment.values = values;
+    }
+    
+    // Bounded by the table length, so a probe over arrays torn by a concurrent writer
+    // still ends; the caller then fails validation and retries
+    private static Object find(long[] keys, Object[] values, long key, long hash) {
+        int mask = keys.length - 1;
+        int index = (int) hash & mask;
+        for (int probes = 0; probes < keys.length; probes++) {
+            long candidate = keys[index];
+            if (candidate == key) {
+                return index < values.length ? values[index] : null;
+            }
+            if (candidate == 0) {
+                return null;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+    
+    private static long mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static <V> V cast(Object value) {
+        return (V) value;
+    }
+}
 
 // User class to store user information
 class User {
+    private final long userKey;
     private String userId;
     private String username;
     private String email;
     private String password;
-    private double balance;
+    // Both amounts are in cents and only change under this user's monitor
+    private volatile long balanceCents;
+    private volatile long heldCents; // reserved by bids that are currently winning
 
     public User(String username, String email, String password) {
-        this.userId = UUID.randomUUID().toString();
+        this.userKey = IdGenerator.nextId();
+        this.userId = IdGenerator.format(userKey);
+        this.username = username;
+        this.email = email;
+        this.password = password;
+        this.balanceCents = 100_000; // Default balance of $1000 for demonstration
+    }
+    
+    // Used when restoring a user from the journal
+    User(String userId, String username, String email, String password, long balanceCents) {
+        this.userKey = key(userId);
+        this.userId = userId;
         this.username = username;
         this.email = email;
         this.password = password;
-        this.balance = 1000.0; // Default balance for demonstration
+        this.balanceCents = balanceCents;
     }
 
     // Getters and setters
     public String getUserId() { return userId; }
+    public long getUserKey() { return userKey; }
     public String getUsername() { return username; }
     public String getEmail() { return email; }
-    public double getBalance() { return balance; }
-    public void setBalance(double balance) { this.balance = balance; }
+    public double getBalance() { return balanceCents / 100.0; }
+    public long getBalanceCents() { return balanceCents; }
+    public long getHeldCents() { return heldCents; }
+    String getPassword() { return password; }
+    
+    // Balance not tied up by winning bids, i.e. what a new bid may reserve
+    public double getAvailableBalance() {
+        return (balanceCents - heldCents) / 100.0;
+    }
+    
+    public synchronized void setBalance(double balance) {
+        this.balanceCents = Math.round(balance * 100);
+    }
     
     public boolean verifyPassword(String password) {
         return this.password.equals(password);
     }
     
+    // Map key for an ID restored from the journal, which must have come from IdGenerator
+    static long key(String id) {
+        long key = IdGenerator.parse(id);
+        if (key == 0) {
+            throw new IllegalArgumentException("Malformed ID: " + id);
+        }
+        return key;
+    }
+    
+    // Account changes made by EscrowLedger
+    synchronized boolean reserve(long cents) {
+        return reserve(cents, 0);
+    }
+    
+    // As reserve, counting a hold the new reservation is about to replace as free
+    synchronized boolean reserve(long cents, long replacedCents) {
+        if (balanceCents - heldCents + replacedCents < cents) {
+            return false;
+        }
+        heldCents += cents;
+        return true;
+    }
+    
+    // Journal replay: the bid was accepted before the crash, so it is reserved unchecked
+    synchronized void forceReserve(long cents) {
+        heldCents += cents;
+    }
+    
+    synchronized void release(long cents) {
+        heldCents -= cents;
+    }
+    
+    // Callers hold the monitors of both sides of the transfer
+    void debitHeld(long cents) {
+        heldCents -= cents;
+        balanceCents -= cents;
+    }
+    
+    void credit(long cents) {
+        balanceCents += cents;
+    }
+    
     @Override
     public String toString() {
         return "User{" +
                 "userId='" + userId + '\'' +
                 ", username='" + username + '\'' +
                 ", email='" + email + '\'' +
-                ", balance=" + balance +
+                ", balance=" + getBalance() +
                 '}';
     }
 }
 
 // Item class for auction items
 class Item {
+    private final long itemKey;
     private String itemId;
     private String name;
     private String description;
     private double startingPrice;
+    private final long sellerKey;
     private String sellerId;
     private String category;
     
     public Item(String name, String description, double startingPrice, String sellerId, String category) {
-        this.itemId = UUID.randomUUID().toString();
+        this(IdGenerator.format(IdGenerator.nextId()), name, description, startingPrice, sellerId, category);
+    }
+    
+    // Used when restoring an item from the journal
+    Item(String itemId, String name, String description, double startingPrice, String sellerId, String category) {
+        this.itemKey = User.key(itemId);
+        this.sellerKey = User.key(sellerId);
+        this.itemId = itemId;
         this.name = name;
         this.description = description;
         this.startingPrice = startingPrice;
@@ -67,10 +515,12 @@ class Item {
     
     // Getters
     public String getItemId() { return itemId; }
+    public long getItemKey() { return itemKey; }
     public String getName() { return name; }
     public String getDescription() { return description; }
     public double getStartingPrice() { return startingPrice; }
     public String getSellerId() { return sellerId; }
+    public long getSellerKey() { return sellerKey; }
     public String getCategory() { return category; }
     
     @Override
@@ -86,352 +536,5303 @@ class Item {
     }
 }
 
-// Bid class to track bids
+// Bid class: a read-only view of one entry in an auction's bid log. Bids are stored
+// column-wise in BidLog and only materialized as Bid objects when read.
 class Bid {
-    private String bidId;
-    private String auctionId;
-    private String bidderId;
-    private double amount;
-    private LocalDateTime timestamp;
+    private final String auctionId;
+    private final int sequence; // 1-based position in the auction's bid history
+    private final String bidderId;
+    private final long amountCents;
+    private final long epochMillis;
     
-    public Bid(String auctionId, String bidderId, double amount) {
-        this.bidId = UUID.randomUUID().toString();
+    // Shared by every place that shows a time; formatters are immutable and thread-safe
+    static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    
+    Bid(String auctionId, int sequence, String bidderId, long amountCents, long epochMillis) {
         this.auctionId = auctionId;
+        this.sequence = sequence;
         this.bidderId = bidderId;
-        this.amount = amount;
-        this.timestamp = LocalDateTime.now();
+        this.amountCents = amountCents;
+        this.epochMillis = epochMillis;
     }
     
     // Getters
-    public String getBidId() { return bidId; }
+    public String getBidId() { return auctionId + "-" + sequence; }
     public String getAuctionId() { return auctionId; }
+    public int getSequence() { return sequence; }
     public String getBidderId() { return bidderId; }
-    public double getAmount() { return amount; }
-    public LocalDateTime getTimestamp() { return timestamp; }
+    public double getAmount() { return amountCents / 100.0; }
+    public long getAmountCents() { return amountCents; }
+    public long getEpochMillis() { return epochMillis; }
+    
+    public LocalDateTime getTimestamp() {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
     
     @Override
     public String toString() {
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
         return "Bid{" +
-                "bidId='" + bidId + '\'' +
+                "bidId='" + getBidId() + '\'' +
                 ", auctionId='" + auctionId + '\'' +
                 ", bidderId='" + bidderId + '\'' +
-                ", amount=" + amount +
-                ", timestamp=" + timestamp.format(formatter) +
+                ", amount=" + getAmount() +
+                ", timestamp=" + getTimestamp().format(TIMESTAMP_FORMAT) +
                 '}';
     }
 }
 
+// BidState class holding an auction's highest bid, its bid count and whether it is
+// closed. States are immutable and swapped with a single compare-and-set, so these
+// always change together and bidding needs no lock. The history itself is in BidLog.
+class BidState {
+    static final BidState EMPTY = new BidState(0, null, 0, false);
+    
+    private final long amountCents;
+    private final String bidderId; // null until the first bid is accepted
+    private final int bidCount;
+    private final boolean closed;
+    
+    BidState(long amountCents, String bidderId, int bidCount, boolean closed) {
+        this.amountCents = amountCents;
+        this.bidderId = bidderId;
+        this.bidCount = bidCount;
+        this.closed = closed;
+    }
+    
+    public long getAmountCents() { return amountCents; }
+    public double getAmount() { return amountCents / 100.0; }
+    public String getBidderId() { return bidderId; }
+    public int getBidCount() { return bidCount; }
+    public boolean isClosed() { return closed; }
+    
+    // The same bids with the open/closed flag changed
+    BidState withClosed(boolean closed) {
+        return new BidState(amountCents, bidderId, bidCount, closed);
+    }
+}
+
+// BidLog class storing an auction's bid history as parallel primitive columns:
+// amount in cents, bidder key and timestamp, 24 bytes per bid. Columns grow in
+// chunks, so appending never copies existing bids. Chunks start at 8 slots and double
+// up to 1024, so an auction with a handful of bids stays small.
+//
+// Slots are claimed by the compare-and-set on BidState and written afterwards. The
+// timestamp is written last with a volatile store, so a reader that sees a non-zero
+// timestamp also sees the rest of the slot; a reader that gets there first waits
+// briefly for the writer.
+class BidLog {
+    private static final int FIRST_CHUNK_BITS = 3;
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int GROWING_CHUNKS = CHUNK_BITS - FIRST_CHUNK_BITS; // 8, 16, ... 512 slots
+    private static final int GROWING_SLOTS = CHUNK_SIZE - (1 << FIRST_CHUNK_BITS);
+    
+    private static final class Chunk {
+        final long[] amountsCents;
+        final long[] bidders;
+        final AtomicLongArray epochMillis;
+        
+        Chunk(int size) {
+            this.amountsCents = new long[size];
+            this.bidders = new long[size];
+            this.epochMillis = new AtomicLongArray(size);
+        }
+    }
+    
+    private final String auctionId;
+    private volatile Chunk[] chunks;
+    
+    public BidLog(String auctionId) {
+        this.auctionId = auctionId;
+        this.chunks = new Chunk[0];
+    }
+    
+    // Writes the bid into a slot already claimed through BidState
+    public void write(int index, String bidderId, long amountCents, long epochMillis) {
+        Chunk chunk = chunk(chunkNumber(index));
+        int slot = slot(index);
+        chunk.amountsCents[slot] = amountCents;
+        chunk.bidders[slot] = IdGenerator.parse(bidderId);
+        chunk.epochMillis.set(slot, epochMillis);
+    }
+    
+    // Reads bid number index (0-based); index must be below the auction's bid count
+    public Bid read(int index) {
+        Chunk chunk = chunk(chunkNumber(index));
+        int slot = slot(index);
+        long epochMillis = awaitWritten(chunk, slot);
+        return new Bid(auctionId, index + 1, IdGenerator.format(chunk.bidders[slot]),
+                chunk.amountsCents[slot], epochMillis);
+    }
+    
+    // Flyweight access for hot loops: fills the cursor instead of allocating a Bid
+    public void read(int index, Cursor cursor) {
+        Chunk chunk = chunk(chunkNumber(index));
+        int slot = slot(index);
+        cursor.epochMillis = awaitWritten(chunk, slot);
+        cursor.amountCents = chunk.amountsCents[slot];
+        cursor.bidderKey = chunk.bidders[slot];
+    }
+    
+    // Reusable view of one bid, filled by read(index, cursor)
+    public static final class Cursor {
+        private long amountCents;
+        private long bidderKey;
+        private long epochMillis;
+        
+        public double getAmount() { return amountCents / 100.0; }
+        public long getAmountCents() { return amountCents; }
+        public long getBidderKey() { return bidderKey; }
+        public String getBidderId() { return IdGenerator.format(bidderKey); }
+        public long getEpochMillis() { return epochMillis; }
+    }
+    
+    // Chunk k < GROWING_CHUNKS holds 8 << k slots starting at index 8 * (2^k - 1);
+    // every later chunk holds CHUNK_SIZE slots
+    private static int chunkNumber(int index) {
+        if (index < GROWING_SLOTS) {
+            return 31 - Integer.numberOfLeadingZeros(index + (1 << FIRST_CHUNK_BITS)) - FIRST_CHUNK_BITS;
+        }
+        return GROWING_CHUNKS + ((index - GROWING_SLOTS) >>> CHUNK_BITS);
+    }
+    
+    private static int slot(int index) {
+        if (index < GROWING_SLOTS) {
+            int shifted = index + (1 << FIRST_CHUNK_BITS);
+            return shifted - Integer.highestOneBit(shifted);
+        }
+        return (index - GROWING_SLOTS) & CHUNK_MASK;
+    }
+    
+    private static int chunkSize(int number) {
+        return number < GROWING_CHUNKS ? 1 << (FIRST_CHUNK_BITS + number) : CHUNK_SIZE;
+    }
+    
+    private static long awaitWritten(Chunk chunk, int slot) {
+        long epochMillis;
+        while ((epochMillis = chunk.epochMillis.get(slot)) == 0) {
+            Thread.onSpinWait();
+        }
+        return epochMillis;
+    }
+    
+    private Chunk chunk(int number) {
+        Chunk[] current = chunks;
+        if (number < current.length && current[number] != null) {
+            return current[number];
+        }
+        return addChunk(number);
+    }
+    
+    private synchronized Chunk addChunk(int number) {
+        Chunk[] current = chunks;
+        if (number >= current.length) {
+            current = Arrays.copyOf(current, Math.max(number + 1, current.length * 2));
+        } else if (current[number] != null) {
+            return current[number];
+        } else {
+            current = current.clone();
+        }
+        Chunk chunk = new Chunk(chunkSize(number));
+        current[number] = chunk;
+        chunks = current;
+        return chunk;
+    }
+}
+
 // Auction class to manage auctions
 class Auction {
+    private final long auctionKey;
+    private final long itemKey;
     private String auctionId;
     private String itemId;
     private LocalDateTime startTime;
     private LocalDateTime endTime;
-    private double currentHighestBid;
-    private String currentHighestBidder;
-    private boolean isActive;
-    private List<Bid> bids;
+    private long endEpochMillis;
+    private final AtomicReference<BidState> bidState;
+    private final BidLog bidLog;
+    private final AtomicReference<EscrowHold> escrow; // owned by EscrowLedger
+    private volatile AuctionDetails details; // cached by AuctionSystem.getAuctionDetails
+    private volatile ProxyBidBook proxyBook; // created by the first proxy bid
     
     public Auction(String itemId, LocalDateTime startTime, LocalDateTime endTime) {
-        this.auctionId = UUID.randomUUID().toString();
+        this(IdGenerator.format(IdGenerator.nextId()), itemId, startTime, endTime);
+    }
+    
+    // Used when restoring an auction from the journal
+    Auction(String auctionId, String itemId, LocalDateTime startTime, LocalDateTime endTime) {
+        this.auctionKey = User.key(auctionId);
+        this.itemKey = User.key(itemId);
+        this.auctionId = auctionId;
         this.itemId = itemId;
         this.startTime = startTime;
         this.endTime = endTime;
-        this.currentHighestBid = 0.0;
-        this.currentHighestBidder = null;
-        this.isActive = true;
-        this.bids = new ArrayList<>();
+        this.endEpochMillis = endTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        this.bidState = new AtomicReference<>(BidState.EMPTY);
+        this.bidLog = new BidLog(auctionId);
+        this.escrow = new AtomicReference<>();
     }
     
     // Getters and setters
     public String getAuctionId() { return auctionId; }
+    public long getAuctionKey() { return auctionKey; }
     public String getItemId() { return itemId; }
+    public long getItemKey() { return itemKey; }
     public LocalDateTime getStartTime() { return startTime; }
     public LocalDateTime getEndTime() { return endTime; }
-    public double getCurrentHighestBid() { return currentHighestBid; }
-    public String getCurrentHighestBidder() { return currentHighestBidder; }
-    public boolean isActive() { return isActive; }
-    public void setActive(boolean active) { isActive = active; }
-    public List<Bid> getBids() { return bids; }
+    public double getCurrentHighestBid() { return bidState.get().getAmount(); }
+    public String getCurrentHighestBidder() { return bidState.get().getBidderId(); }
+    public long getEndEpochMillis() { return endEpochMillis; }
+    public BidState getBidState() { return bidState.get(); }
+    public BidLog getBidLog() { return bidLog; }
+    AtomicReference<EscrowHold> getEscrow() { return escrow; }
+    AuctionDetails getCachedDetails() { return details; }
+    void setCachedDetails(AuctionDetails details) { this.details = details; }
+    ProxyBidBook getProxyBook() { return proxyBook; }
     
-    public void addBid(Bid bid) {
-        bids.add(bid);
-        if (bid.getAmount() > currentHighestBid) {
-            currentHighestBid = bid.getAmount();
-            currentHighestBidder = bid.getBidderId();
+    synchronized ProxyBidBook openProxyBook() {
+        if (proxyBook == null) {
+            proxyBook = new ProxyBidBook();
+        }
+        return proxyBook;
+    }
+    public boolean isActive() { return !bidState.get().isClosed(); }
+    
+    public void setActive(boolean active) {
+        bidState.updateAndGet(state -> state.withClosed(!active));
+    }
+    
+    // Moves the auction from active to closed; only the first caller gets true.
+    // Once closed, addBid rejects every bid, so settlement sees the final state.
+    public boolean close() {
+        while (true) {
+            BidState current = bidState.get();
+            if (current.isClosed()) {
+                return false;
+            }
+            if (bidState.compareAndSet(current, current.withClosed(true))) {
+                return true;
+            }
+        }
+    }
+    
+    // Bids in the order they were accepted
+    public List<Bid> getBids() {
+        int count = bidState.get().getBidCount();
+        List<Bid> bids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            bids.add(bidLog.read(i));
+        }
+        return bids;
+    }
+    
+    // Bid number sequence, counting from 1
+    public Bid getBid(int sequence) {
+        return bidLog.read(sequence - 1);
+    }
+    
+    // Accepts the bid only if the auction is open and the bid beats the current highest
+    // bid. Threads racing on the same auction retry the compare-and-set until they win
+    // or are outbid. Returns the state holding the new bid, or null if it was rejected.
+    public BidState addBid(String bidderId, long amountCents, long epochMillis) {
+        while (true) {
+            BidState current = bidState.get();
+            if (current.isClosed() || amountCents <= current.getAmountCents()) {
+                return null;
+            }
+            BidState next = new BidState(amountCents, bidderId, current.getBidCount() + 1, false);
+            if (bidState.compareAndSet(current, next)) {
+                bidLog.write(current.getBidCount(), bidderId, amountCents, epochMillis);
+                return next;
+            }
+        }
+    }
+    
+    // Accepts a run of bids in increasing amount order with a single compare-and-set.
+    // Bids that no longer beat the highest bid when the batch is applied are dropped,
+    // so the accepted bids are always a suffix of the list. Returns the state the batch
+    // was applied on top of, or null if the auction is closed.
+    public BidState addBids(List<Bid> bids) {
+        while (true) {
+            BidState current = bidState.get();
+            if (current.isClosed()) {
+                return null;
+            }
+            int first = 0;
+            while (first < bids.size() && bids.get(first).getAmountCents() <= current.getAmountCents()) {
+                first++;
+            }
+            if (first == bids.size()) {
+                return current;
+            }
+            Bid last = bids.get(bids.size() - 1);
+            BidState next = new BidState(last.getAmountCents(), last.getBidderId(),
+                    current.getBidCount() + bids.size() - first, false);
+            if (bidState.compareAndSet(current, next)) {
+                for (int i = first; i < bids.size(); i++) {
+                    Bid bid = bids.get(i);
+                    bidLog.write(current.getBidCount() + i - first, bid.getBidderId(),
+                            bid.getAmountCents(), bid.getEpochMillis());
+                }
+                return current;
+            }
         }
     }
     
     @Override
     public String toString() {
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+        BidState state = bidState.get();
         return "Auction{" +
                 "auctionId='" + auctionId + '\'' +
                 ", itemId='" + itemId + '\'' +
-                ", startTime=" + startTime.format(formatter) +
-                ", endTime=" + endTime.format(formatter) +
-                ", currentHighestBid=" + currentHighestBid +
-                ", currentHighestBidder='" + currentHighestBidder + '\'' +
-                ", isActive=" + isActive +
-                ", bids=" + bids.size() +
+                ", startTime=" + startTime.format(Bid.TIMESTAMP_FORMAT) +
+                ", endTime=" + endTime.format(Bid.TIMESTAMP_FORMAT) +
+                ", currentHighestBid=" + state.getAmount() +
+                ", currentHighestBidder='" + state.getBidderId() + '\'' +
+                ", isActive=" + !state.isClosed() +
+                ", bids=" + state.getBidCount() +
                 '}';
     }
 }
 
-// AuctionSystem class to manage the entire system
-class AuctionSystem {
-    private Map<String, User> users;
-    private Map<String, Item> items;
-    private Map<String, Auction> auctions;
-    private Map<String, List<String>> userAuctions; // user ID -> list of auction IDs
-    private Map<String, List<String>> userBids; // user ID -> list of bid IDs
-    private User currentUser;
+// EscrowHold class recording which bid's reservation an auction currently holds.
+// A settled hold marks the end of the auction: its sequence is the final bid count.
+class EscrowHold {
+    private final String bidderId;
+    private final int sequence;
+    private final long amountCents;
+    private final boolean settled;
     
-    public AuctionSystem() {
-        this.users = new HashMap<>();
-        this.items = new HashMap<>();
-        this.auctions = new HashMap<>();
-        this.userAuctions = new HashMap<>();
-        this.userBids = new HashMap<>();
-        this.currentUser = null;
+    EscrowHold(String bidderId, int sequence, long amountCents, boolean settled) {
+        this.bidderId = bidderId;
+        this.sequence = sequence;
+        this.amountCents = amountCents;
+        this.settled = settled;
     }
     
-    // User Management
-    public User registerUser(String username, String email, String password) {
-        // Check if username or email already exists
-        for (User user : users.values()) {
-            if (user.getUsername().equals(username) || user.getEmail().equals(email)) {
-                System.out.println("Username or email already exists!");
-                return null;
-            }
-        }
-        
-        User newUser = new User(username, email, password);
-        users.put(newUser.getUserId(), newUser);
-        userAuctions.put(newUser.getUserId(), new ArrayList<>());
-        userBids.put(newUser.getUserId(), new ArrayList<>());
-        return newUser;
+    public String getBidderId() { return bidderId; }
+    public int getSequence() { return sequence; }
+    public long getAmountCents() { return amountCents; }
+    public boolean isSettled() { return settled; }
+}
+
+// SettlementResult enum describing what happened to the money when an auction closed
+enum SettlementResult {
+    TRANSFERRED, NO_BIDS, INSUFFICIENT_FUNDS
+}
+
+// EscrowLedger class moving money between user accounts. A bid first reserves its
+// amount from the bidder's available balance; once the bid is published the auction's
+// escrow points at it and the reservation it outbid is released. Closing the auction
+// turns the winning reservation into a transfer to the seller. Each account is guarded
+// by its own monitor, so settlements between different users run in parallel.
+class EscrowLedger {
+    private final LongMap<User> accounts;
+    
+    EscrowLedger(LongMap<User> accounts) {
+        this.accounts = accounts;
     }
     
-    public User login(String email, String password) {
-        for (User user : users.values()) {
-            if (user.getEmail().equals(email) && user.verifyPassword(password)) {
-                currentUser = user;
-                return user;
-            }
-        }
-        System.out.println("Invalid credentials!");
-        return null;
+    public boolean reserve(User user, long cents) {
+        return user.reserve(cents);
     }
     
-    public void logout() {
-        currentUser = null;
-        System.out.println("Logged out successfully!");
+    // Reserves a bid by a user who may already lead the auction. Their hold there is
+    // released by holdWinning once the new bid is published, so it counts as free.
+    public boolean reserveRaise(User user, Auction auction, long cents) {
+        return reserveRaise(user, auction, cents, 0);
     }
     
-    // Item Management
-    public Item createItem(String name, String description, double startingPrice, String category) {
-        if (currentUser == null) {
-            System.out.println("You must be logged in to create an item!");
-            return null;
+    // As above, also counting reservations for lower bids on the same auction that this
+    // bid outbids, and whose holds are likewise released once it is published
+    public boolean reserveRaise(User user, Auction auction, long cents, long outbidCents) {
+        return user.reserve(cents, heldOn(auction, user.getUserId()) + outbidCents);
+    }
+    
+    // What the user holds as the auction's leader, 0 if they do not lead it
+    public long heldOn(Auction auction, String bidderId) {
+        EscrowHold hold = auction.getEscrow().get();
+        return hold != null && !hold.isSettled() && hold.getBidderId().equals(bidderId) ? hold.getAmountCents() : 0;
+    }
+    
+    public void forceReserve(User user, long cents) {
+        user.forceReserve(cents);
+    }
+    
+    public void release(User user, long cents) {
+        user.release(cents);
+    }
+    
+    // Makes a published bid the auction's hold and releases the one it replaces. Bids on
+    // one auction can get here out of order, so a hold only replaces an earlier bid's.
+    public void holdWinning(Auction auction, String bidderId, int sequence, long cents) {
+        AtomicReference<EscrowHold> escrow = auction.getEscrow();
+        EscrowHold hold = new EscrowHold(bidderId, sequence, cents, false);
+        EscrowHold previous;
+        do {
+            previous = escrow.get();
+            if (previous != null && previous.getSequence() >= sequence) {
+                // Outbid already, unless settlement got here first and took this very bid
+                if (!previous.isSettled() || previous.getSequence() != sequence) {
+                    release(account(bidderId), cents);
+                }
+                return;
+            }
+        } while (!escrow.compareAndSet(previous, hold));
+        if (previous != null) {
+            release(account(previous.getBidderId()), previous.getAmountCents());
         }
-        
-        Item newItem = new Item(name, description, startingPrice, currentUser.getUserId(), category);
-        items.put(newItem.getItemId(), newItem);
-        return newItem;
     }
     
-    // Auction Management
-    public Auction createAuction(String itemId, int durationInHours) {
-        if (currentUser == null) {
-            System.out.println("You must be logged in to create an auction!");
-            return null;
+    // Pays the seller from the winner's reservation. The auction must already be closed,
+    // so its bid state is final; a hold that has not been recorded yet is handled by
+    // holdWinning when it arrives.
+    public SettlementResult settle(Auction auction, User seller) {
+        BidState last = auction.getBidState();
+        EscrowHold previous = finish(auction, last);
+        if (previous != null && previous.getSequence() != last.getBidCount()) {
+            release(account(previous.getBidderId()), previous.getAmountCents());
         }
-        
-        Item item = items.get(itemId);
-        if (item == null) {
-            System.out.println("Item not found!");
-            return null;
+        if (last.getBidderId() == null) {
+            return SettlementResult.NO_BIDS;
         }
         
-        if (!item.getSellerId().equals(currentUser.getUserId())) {
-            System.out.println("You can only auction your own items!");
-            return null;
+        User buyer = account(last.getBidderId());
+        long cents = last.getAmountCents();
+        // Lock both accounts in a fixed order so opposite transfers cannot deadlock
+        User first = buyer.getUserId().compareTo(seller.getUserId()) < 0 ? buyer : seller;
+        User second = first == buyer ? seller : buyer;
+        synchronized (first) {
+            synchronized (second) {
+                // Only possible if the balance was lowered with setBalance after the bid
+                if (buyer.getBalanceCents() < cents) {
+                    buyer.release(cents);
+                    return SettlementResult.INSUFFICIENT_FUNDS;
+                }
+                buyer.debitHeld(cents);
+                seller.credit(cents);
+            }
         }
-        
-        LocalDateTime startTime = LocalDateTime.now();
-        LocalDateTime endTime = startTime.plusHours(durationInHours);
-        
-        Auction newAuction = new Auction(itemId, startTime, endTime);
-        auctions.put(newAuction.getAuctionId(), newAuction);
-        
-        // Add to user's auctions
-        userAuctions.get(currentUser.getUserId()).add(newAuction.getAuctionId());
-        
-        return newAuction;
+        return SettlementResult.TRANSFERRED;
     }
     
-    // Bidding
-    public Bid placeBid(String auctionId, double amount) {
-        if (currentUser == null) {
-            System.out.println("You must be logged in to place a bid!");
-            return null;
-        }
-        
-        Auction auction = auctions.get(auctionId);
-        if (auction == null) {
-            System.out.println("Auction not found!");
-            return null;
-        }
-        
-        Item item = items.get(auction.getItemId());
-        if (item.getSellerId().equals(currentUser.getUserId())) {
-            System.out.println("You cannot bid on your own auction!");
-            return null;
+    // Ends the auction's escrow without moving money, for auctions restored from a
+    // snapshot whose balances already include the settlement
+    public void discard(Auction auction) {
+        BidState last = auction.getBidState();
+        EscrowHold previous = finish(auction, last);
+        if (previous != null) {
+            release(account(previous.getBidderId()), previous.getAmountCents());
         }
-        
-        if (!auction.isActive()) {
-            System.out.println("This auction is no longer active!");
-            return null;
+        if (last.getBidderId() != null && (previous == null || previous.getSequence() != last.getBidCount())) {
+            release(account(last.getBidderId()), last.getAmountCents());
         }
+    }
+    
+    private User account(String userId) {
+        return accounts.get(IdGenerator.parse(userId));
+    }
+    
+    private EscrowHold finish(Auction auction, BidState last) {
+        return auction.getEscrow().getAndSet(new EscrowHold(last.getBidderId(), last.getBidCount(),
+                last.getAmountCents(), true));
+    }
+}
+
+// ProxyBid class: a bidder's standing maximum on one auction
+class ProxyBid {
+    private final String bidderId;
+    private final long maxCents;
+    private final long sequence; // registration order; the earlier of equal maximums wins
+    
+    public ProxyBid(String bidderId, long maxCents, long sequence) {
+        this.bidderId = bidderId;
+        this.maxCents = maxCents;
+        this.sequence = sequence;
+    }
+    
+    // Getters
+    public String getBidderId() { return bidderId; }
+    public double getMaxAmount() { return maxCents / 100.0; }
+    public long getMaxCents() { return maxCents; }
+    public long getSequence() { return sequence; }
+}
+
+// ProxyBidBook class holding the proxy bids on one auction, highest maximum first, in a
+// tree so placing, raising and dropping a maximum are all O(log n). Each bidder has at
+// most one. Guarded by its own monitor, which AuctionSystem holds while it registers
+// proxies and resolves the price they imply.
+class ProxyBidBook {
+    private static final Comparator<ProxyBid> ORDER = Comparator.comparingLong((ProxyBid bid) -> -bid.getMaxCents())
+            .thenComparingLong(ProxyBid::getSequence);
+    // Prices from INCREMENT_STEPS[i] up are raised by at least INCREMENTS[i + 1]
+    private static final long[] INCREMENT_STEPS = {100, 500, 2_500, 10_000, 25_000, 50_000, 100_000, 250_000, 500_000};
+    private static final long[] INCREMENTS = {5, 25, 50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000};
+    
+    private final TreeSet<ProxyBid> bids;
+    private final Map<String, ProxyBid> byBidder;
+    private long nextSequence;
+    
+    public ProxyBidBook() {
+        this.bids = new TreeSet<>(ORDER);
+        this.byBidder = new HashMap<>();
+    }
+    
+    ProxyBid get(String bidderId) {
+        return byBidder.get(bidderId);
+    }
+    
+    // Replaces the bidder's previous maximum, if any, and queues behind equal maximums
+    ProxyBid put(String bidderId, long maxCents) {
+        remove(byBidder.get(bidderId));
+        ProxyBid bid = new ProxyBid(bidderId, maxCents, nextSequence++);
+        bids.add(bid);
+        byBidder.put(bidderId, bid);
+        return bid;
+    }
+    
+    void remove(ProxyBid bid) {
+        if (bid != null && bids.remove(bid)) {
+            byBidder.remove(bid.getBidderId());
+        }
+    }
+    
+    ProxyBid first() {
+        return bids.isEmpty() ? null : bids.first();
+    }
+    
+    ProxyBid second() {
+        return bids.isEmpty() ? null : bids.higher(bids.first());
+    }
+    
+    // Drops the maximums the price has gone strictly past. The leader's never has, and
+    // one the price has only reached is tied, not beaten, so it stays.
+    void discardBeaten(long priceCents) {
+        Iterator<ProxyBid> lowest = bids.descendingIterator();
+        while (lowest.hasNext()) {
+            ProxyBid bid = lowest.next();
+            if (bid.getMaxCents() >= priceCents) {
+                return;
+            }
+            lowest.remove();
+            byBidder.remove(bid.getBidderId());
+        }
+    }
+    
+    List<ProxyBid> all() {
+        return new ArrayList<>(bids);
+    }
+    
+    // Minimum raise over a price, growing with the price
+    static long increment(long priceCents) {
+        int step = 0;
+        while (step < INCREMENT_STEPS.length && priceCents >= INCREMENT_STEPS[step]) {
+            step++;
+        }
+        return INCREMENTS[step];
+    }
+}
+
+// BidStanding enum: where a bidder stands on an auction they have bid on
+enum BidStanding {
+    WINNING,
+    OUTBID,
+    WON,
+    LOST
+}
+
+// BidActivity class: one row of a user's bidding dashboard, a snapshot taken when the
+// dashboard was read
+class BidActivity {
+    private final String auctionId;
+    private final long endEpochMillis;
+    private final long bestBidCents;
+    private final int bidCount;
+    private final long lastBidEpochMillis;
+    private final long currentPriceCents;
+    private final BidStanding standing;
+    
+    public BidActivity(String auctionId, long endEpochMillis, long bestBidCents, int bidCount,
+                       long lastBidEpochMillis, long currentPriceCents, BidStanding standing) {
+        this.auctionId = auctionId;
+        this.endEpochMillis = endEpochMillis;
+        this.bestBidCents = bestBidCents;
+        this.bidCount = bidCount;
+        this.lastBidEpochMillis = lastBidEpochMillis;
+        this.currentPriceCents = currentPriceCents;
+        this.standing = standing;
+    }
+    
+    // Getters
+    public String getAuctionId() { return auctionId; }
+    public long getEndEpochMillis() { return endEpochMillis; }
+    public double getBestBid() { return bestBidCents / 100.0; }
+    public long getBestBidCents() { return bestBidCents; }
+    public int getBidCount() { return bidCount; }
+    public long getLastBidEpochMillis() { return lastBidEpochMillis; }
+    public double getCurrentPrice() { return currentPriceCents / 100.0; }
+    public BidStanding getStanding() { return standing; }
+    public boolean isOpen() { return standing == BidStanding.WINNING || standing == BidStanding.OUTBID; }
+    
+    @Override
+    public String toString() {
+        return "BidActivity{" +
+                "auctionId='" + auctionId + '\'' +
+                ", bestBid=" + getBestBid() +
+                ", currentPrice=" + getCurrentPrice() +
+                ", standing=" + standing +
+                '}';
+    }
+}
+
+// UserActivity class: the auctions one user sells and the ones they have bid on, with
+// their best bid on each. Both are appended to as auctions are created and bids are
+// accepted, so a dashboard costs O(the user's auctions) instead of a scan of every
+// auction. Winning or outbid is not stored here: it is read from the auction's
+// BidState, which every bid and close already replaces atomically, so it is always
+// current and being outbid costs the previous leader nothing. Once an auction is
+// archived its positions keep only the final price and whether the user won, so
+// activity holds no archived auction on the heap.
+class UserActivity {
+    // A user's bids on one auction
+    private static final class Position {
+        final String auctionId;
+        final long endEpochMillis;
+        Auction auction; // null once the auction is archived
+        long bestCents;
+        int bidCount;
+        long lastEpochMillis;
+        long finalCents;
+        boolean won;
+        
+        Position(Auction auction) {
+            this.auctionId = auction.getAuctionId();
+            this.endEpochMillis = auction.getEndEpochMillis();
+            this.auction = auction;
+        }
+    }
+    
+    private final Queue<String> selling; // auction IDs
+    private final Map<String, Position> bidding; // auction ID -> the user's bids on it
+    
+    public UserActivity() {
+        this.selling = new ConcurrentLinkedQueue<>();
+        this.bidding = new ConcurrentHashMap<>();
+    }
+    
+    void auctionCreated(Auction auction) {
+        selling.add(auction.getAuctionId());
+    }
+    
+    void bidPlaced(Auction auction, long amountCents, long epochMillis) {
+        Position position = bidding.computeIfAbsent(auction.getAuctionId(), id -> new Position(auction));
+        synchronized (position) {
+            position.bestCents = Math.max(position.bestCents, amountCents);
+            position.bidCount++;
+            position.lastEpochMillis = Math.max(position.lastEpochMillis, epochMillis);
+        }
+    }
+    
+    void auctionArchived(String auctionId, long finalCents, boolean won) {
+        Position position = bidding.get(auctionId);
+        if (position != null) {
+            synchronized (position) {
+                position.auction = null;
+                position.finalCents = finalCents;
+                position.won = won;
+            }
+        }
+    }
+    
+    // IDs of the user's auctions in creation order
+    public List<String> getSelling() {
+        return new ArrayList<>(selling);
+    }
+    
+    // Open auctions first, ending soonest first, then closed ones, most recently ended first
+    public List<BidActivity> getBidding(String userId) {
+        List<BidActivity> rows = new ArrayList<>(bidding.size());
+        for (Position position : bidding.values()) {
+            synchronized (position) {
+                BidStanding standing;
+                long priceCents;
+                if (position.auction == null) {
+                    standing = position.won ? BidStanding.WON : BidStanding.LOST;
+                    priceCents = position.finalCents;
+                } else {
+                    BidState state = position.auction.getBidState();
+                    boolean leading = userId.equals(state.getBidderId());
+                    standing = state.isClosed()
+                            ? (leading ? BidStanding.WON : BidStanding.LOST)
+                            : (leading ? BidStanding.WINNING : BidStanding.OUTBID);
+                    priceCents = state.getAmountCents();
+                }
+                rows.add(new BidActivity(position.auctionId, position.endEpochMillis, position.bestCents,
+                        position.bidCount, position.lastEpochMillis, priceCents, standing));
+            }
+        }
+        rows.sort(Comparator.comparing((BidActivity row) -> !row.isOpen())
+                .thenComparingLong(row -> row.isOpen() ? row.getEndEpochMillis() : -row.getEndEpochMillis()));
+        return rows;
+    }
+}
+
+// Session class representing one logged-in user, identified by an opaque token
+class Session {
+    private final String token;
+    private final String userId;
+    private volatile long lastAccessNanos;
+    
+    // Only SessionStore creates sessions
+    Session(String token, String userId) {
+        this.token = token;
+        this.userId = userId;
+        this.lastAccessNanos = System.nanoTime();
+    }
+    
+    // Getters
+    public String getToken() { return token; }
+    public String getUserId() { return userId; }
+    long getLastAccessNanos() { return lastAccessNanos; }
+    void touch(long now) { lastAccessNanos = now; }
+    
+    @Override
+    public String toString() {
+        return "Session{" +
+                "userId='" + userId + '\'' +
+                '}';
+    }
+}
+
+// SessionStore class mapping session tokens to users. Lookups are O(1), sessions
+// expire after an idle timeout and the number of live sessions is capped.
+class SessionStore {
+    private static final SecureRandom RANDOM = new SecureRandom();
+    
+    private final Map<String, Session> sessions;
+    private final AtomicInteger size;
+    private final int maxSessions;
+    private final long idleTimeoutNanos;
+    
+    public SessionStore(int maxSessions, Duration idleTimeout) {
+        this.sessions = new ConcurrentHashMap<>();
+        this.size = new AtomicInteger();
+        this.maxSessions = maxSessions;
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+    }
+    
+    // Returns null when the store is full even after dropping expired sessions
+    public Session create(String userId) {
+        if (!reserveSlot()) {
+            removeExpired();
+            if (!reserveSlot()) {
+                return null;
+            }
+        }
+        Session session = new Session(newToken(), userId);
+        sessions.put(session.getToken(), session);
+        return session;
+    }
+    
+    // Returns the live session for the token, or null if it is unknown or has expired
+    public Session get(String token) {
+        Session session = sessions.get(token);
+        if (session == null) {
+            return null;
+        }
+        long now = System.nanoTime();
+        if (now - session.getLastAccessNanos() > idleTimeoutNanos) {
+            remove(token);
+            return null;
+        }
+        session.touch(now);
+        return session;
+    }
+    
+    public void remove(String token) {
+        if (sessions.remove(token) != null) {
+            size.decrementAndGet();
+        }
+    }
+    
+    public int size() {
+        return size.get();
+    }
+    
+    // Full sweep, only run when the store is at capacity
+    public void removeExpired() {
+        long now = System.nanoTime();
+        for (Session session : sessions.values()) {
+            if (now - session.getLastAccessNanos() > idleTimeoutNanos) {
+                remove(session.getToken());
+            }
+        }
+    }
+    
+    private boolean reserveSlot() {
+        while (true) {
+            int current = size.get();
+            if (current >= maxSessions) {
+                return false;
+            }
+            if (size.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+    
+    private static String newToken() {
+        byte[] bytes = new byte[24];
+        RANDOM.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
+
+// Operation enum naming the AuctionSystem calls that are counted and timed
+enum Operation {
+    REGISTER_USER,
+    LOGIN,
+    CREATE_ITEM,
+    CREATE_AUCTION,
+    PLACE_BID,
+    PLACE_BIDS,
+    PLACE_PROXY_BID,
+    LIST_ACTIVE_AUCTIONS,
+    BROWSE_AUCTIONS,
+    SEARCH_AUCTIONS,
+    WATCH_AUCTION,
+    VIEW_AUCTION,
+    VIEW_ACTIVITY,
+    CLOSE_AUCTION
+}
+
+// Outcome enum: the result code of an AuctionSystem call
+enum Outcome {
+    OK,
+    DUPLICATE_USER,
+    INVALID_CREDENTIALS,
+    TOO_MANY_SESSIONS,
+    NOT_LOGGED_IN,
+    SESSION_EXPIRED,
+    USER_NOT_FOUND,
+    ITEM_NOT_FOUND,
+    AUCTION_NOT_FOUND,
+    NOT_OWNER,
+    OWN_AUCTION,
+    AUCTION_CLOSED,
+    AUCTION_ENDED,
+    BID_TOO_LOW,
+    INSUFFICIENT_BALANCE,
+    DUPLICATE_ID,
+    INVALID_REQUEST
+}
+
+// LatencyHistogram class recording durations in log-linear buckets, in the style of
+// HdrHistogram: 16 sub-buckets per power of two keep every bucket within about 6% of
+// the values it holds. Recording is a single atomic increment, so it is safe and
+// cheap from any number of threads.
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS + 2 * SUB_BUCKETS;
+    
+    private final AtomicLongArray counts;
+    private final LongAdder totalNanos;
+    private final AtomicLong maxNanos;
+    
+    public LatencyHistogram() {
+        this.counts = new AtomicLongArray(BUCKETS);
+        this.totalNanos = new LongAdder();
+        this.maxNanos = new AtomicLong();
+    }
+    
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucket(value));
+        totalNanos.add(value);
+        long max = maxNanos.get();
+        while (value > max && !maxNanos.compareAndSet(max, value)) {
+            max = maxNanos.get();
+        }
+    }
+    
+    // Values below 2 * SUB_BUCKETS get a bucket each; above that the top
+    // SUB_BUCKET_BITS + 1 bits select the bucket
+    private static int bucket(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+    
+    // Largest value that lands in the bucket
+    private static long bucketUpperBound(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long subBucket = bucket - shift * SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+    
+    public Summary summarize() {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        long max = maxNanos.get();
+        return new Summary(count, count == 0 ? 0 : totalNanos.sum() / count,
+                percentile(snapshot, count, 0.50, max), percentile(snapshot, count, 0.99, max),
+                percentile(snapshot, count, 0.999, max), max);
+    }
+    
+    // A bucket's upper bound can exceed every value in it, so it is capped at the max
+    private static long percentile(long[] snapshot, long count, double percentile, long max) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile * count);
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), max);
+            }
+        }
+        return max;
+    }
+    
+    // Point-in-time latency summary, all values in nanoseconds
+    public static final class Summary {
+        private final long count;
+        private final long meanNanos;
+        private final long p50Nanos;
+        private final long p99Nanos;
+        private final long p999Nanos;
+        private final long maxNanos;
+        
+        Summary(long count, long meanNanos, long p50Nanos, long p99Nanos, long p999Nanos, long maxNanos) {
+            this.count = count;
+            this.meanNanos = meanNanos;
+            this.p50Nanos = p50Nanos;
+            this.p99Nanos = p99Nanos;
+            this.p999Nanos = p999Nanos;
+            this.maxNanos = maxNanos;
+        }
+        
+        // Getters
+        public long getCount() { return count; }
+        public long getMeanNanos() { return meanNanos; }
+        public long getP50Nanos() { return p50Nanos; }
+        public long getP99Nanos() { return p99Nanos; }
+        public long getP999Nanos() { return p999Nanos; }
+        public long getMaxNanos() { return maxNanos; }
+        
+        @Override
+        public String toString() {
+            return "Summary{" +
+                    "count=" + count +
+                    ", mean=" + meanNanos + "ns" +
+                    ", p50=" + p50Nanos + "ns" +
+                    ", p99=" + p99Nanos + "ns" +
+                    ", p999=" + p999Nanos + "ns" +
+                    ", max=" + maxNanos + "ns" +
+                    '}';
+        }
+    }
+}
+
+// AuctionMetrics class counting outcomes per operation and timing the hot calls.
+// Counters are LongAdders, so threads recording the same outcome do not contend.
+class AuctionMetrics {
+    private final LongAdder[][] counters;
+    private final LatencyHistogram[] latencies;
+    
+    public AuctionMetrics() {
+        this.counters = new LongAdder[Operation.values().length][Outcome.values().length];
+        for (LongAdder[] row : counters) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] = new LongAdder();
+            }
+        }
+        this.latencies = new LatencyHistogram[Operation.values().length];
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+    
+    public void count(Operation operation, Outcome outcome) {
+        counters[operation.ordinal()][outcome.ordinal()].increment();
+    }
+    
+    public void recordLatency(Operation operation, long nanos) {
+        latencies[operation.ordinal()].record(nanos);
+    }
+    
+    public long getCount(Operation operation, Outcome outcome) {
+        return counters[operation.ordinal()][outcome.ordinal()].sum();
+    }
+    
+    public LatencyHistogram.Summary getLatency(Operation operation) {
+        return latencies[operation.ordinal()].summarize();
+    }
+    
+    // Prometheus text exposition format, for scraping
+    public String export() {
+        StringBuilder out = new StringBuilder();
+        out.append("# TYPE auction_requests_total counter\n");
+        for (Operation operation : Operation.values()) {
+            for (Outcome outcome : Outcome.values()) {
+                long count = getCount(operation, outcome);
+                if (count > 0) {
+                    out.append("auction_requests_total{operation=\"").append(label(operation))
+                            .append("\",outcome=\"").append(label(outcome)).append("\"} ")
+                            .append(count).append('\n');
+                }
+            }
+        }
+        out.append("# TYPE auction_latency_seconds summary\n");
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram.Summary summary = getLatency(operation);
+            if (summary.getCount() == 0) {
+                continue;
+            }
+            String name = "auction_latency_seconds{operation=\"" + label(operation) + "\"";
+            out.append(name).append(",quantile=\"0.5\"} ").append(seconds(summary.getP50Nanos())).append('\n');
+            out.append(name).append(",quantile=\"0.99\"} ").append(seconds(summary.getP99Nanos())).append('\n');
+            out.append(name).append(",quantile=\"0.999\"} ").append(seconds(summary.getP999Nanos())).append('\n');
+            out.append("auction_latency_seconds_count{operation=\"").append(label(operation)).append("\"} ")
+                    .append(summary.getCount()).append('\n');
+        }
+        return out.toString();
+    }
+    
+    private static String label(Enum<?> value) {
+        return value.name().toLowerCase(Locale.ROOT);
+    }
+    
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+}
+
+// BidRequest class for one bid handed over in a batch
+class BidRequest {
+    private final String bidderId;
+    private final String auctionId;
+    private final double amount;
+    
+    public BidRequest(String bidderId, String auctionId, double amount) {
+        this.bidderId = bidderId;
+        this.auctionId = auctionId;
+        this.amount = amount;
+    }
+    
+    // Getters
+    public String getBidderId() { return bidderId; }
+    public String getAuctionId() { return auctionId; }
+    public double getAmount() { return amount; }
+}
+
+// BidResult class pairing a bid request with its outcome
+class BidResult {
+    private final BidRequest request;
+    private final Outcome status;
+    private final Bid bid; // only set when the bid was accepted
+    
+    public BidResult(BidRequest request, Outcome status, Bid bid) {
+        this.request = request;
+        this.status = status;
+        this.bid = bid;
+    }
+    
+    // Getters
+    public BidRequest getRequest() { return request; }
+    public Outcome getStatus() { return status; }
+    public Bid getBid() { return bid; }
+    public boolean isAccepted() { return status == Outcome.OK; }
+    
+    @Override
+    public String toString() {
+        return "BidResult{" +
+                "auctionId='" + request.getAuctionId() + '\'' +
+                ", amount=" + request.getAmount() +
+                ", status=" + status +
+                '}';
+    }
+}
+
+// AuctionSort enum for browse queries
+enum AuctionSort {
+    ENDING_SOONEST,
+    PRICE_LOW_TO_HIGH,
+    PRICE_HIGH_TO_LOW
+}
+
+// AuctionPage class holding one page of browse results and the cursor for the next
+class AuctionPage {
+    private final List<Auction> auctions;
+    private final String nextCursor; // null on the last page
+    
+    public AuctionPage(List<Auction> auctions, String nextCursor) {
+        this.auctions = auctions;
+        this.nextCursor = nextCursor;
+    }
+    
+    // Getters
+    public List<Auction> getAuctions() { return auctions; }
+    public String getNextCursor() { return nextCursor; }
+    public boolean hasMore() { return nextCursor != null; }
+}
+
+// BidHistoryEntry class: one row of an auction's bid history, with the bidder's name
+class BidHistoryEntry {
+    private final int sequence;
+    private final String bidderId;
+    private final String bidderName;
+    private final long amountCents;
+    private final long epochMillis;
+    
+    public BidHistoryEntry(int sequence, String bidderId, String bidderName, long amountCents, long epochMillis) {
+        this.sequence = sequence;
+        this.bidderId = bidderId;
+        this.bidderName = bidderName;
+        this.amountCents = amountCents;
+        this.epochMillis = epochMillis;
+    }
+    
+    // Getters
+    public int getSequence() { return sequence; }
+    public String getBidderId() { return bidderId; }
+    public String getBidderName() { return bidderName; }
+    public double getAmount() { return amountCents / 100.0; }
+    public long getAmountCents() { return amountCents; }
+    public long getEpochMillis() { return epochMillis; }
+    
+    public LocalDateTime getTimestamp() {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+}
+
+// BidHistoryPage class: bids newest first, plus a cursor for the next (older) page.
+// Bids are never removed or reordered, so a cursor stays valid for good.
+class BidHistoryPage {
+    private final List<BidHistoryEntry> bids;
+    private final String nextCursor; // null once the first bid has been returned
+    
+    public BidHistoryPage(List<BidHistoryEntry> bids, String nextCursor) {
+        this.bids = bids;
+        this.nextCursor = nextCursor;
+    }
+    
+    // Getters
+    public List<BidHistoryEntry> getBids() { return bids; }
+    public String getNextCursor() { return nextCursor; }
+    public boolean hasMore() { return nextCursor != null; }
+    
+    // The bid sequence a cursor names, or 0 if it is not one
+    static int parseCursor(String cursor) {
+        try {
+            return Math.max(0, Integer.parseInt(cursor));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
+
+// AuctionDetails class: an immutable snapshot of an auction, its item and its newest
+// bids, taken at one BidState. The auction caches it until a bid or close replaces
+// that state, and the text rendering is built at most once per snapshot.
+class AuctionDetails {
+    private final BidState state; // the version this snapshot was taken at
+    private final String auctionId;
+    private final String itemName;
+    private final String description;
+    private final String category;
+    private final String sellerName;
+    private final LocalDateTime startTime;
+    private final LocalDateTime endTime;
+    private final String highestBidderName; // null before the first bid
+    private final BidHistoryPage recentBids;
+    private volatile String rendered;
+    
+    AuctionDetails(BidState state, Auction auction, Item item, String sellerName,
+                   String highestBidderName, BidHistoryPage recentBids) {
+        this.state = state;
+        this.auctionId = auction.getAuctionId();
+        this.itemName = item.getName();
+        this.description = item.getDescription();
+        this.category = item.getCategory();
+        this.sellerName = sellerName;
+        this.startTime = auction.getStartTime();
+        this.endTime = auction.getEndTime();
+        this.highestBidderName = highestBidderName;
+        this.recentBids = recentBids;
+    }
+    
+    // Getters
+    BidState getState() { return state; }
+    public String getAuctionId() { return auctionId; }
+    public String getItemName() { return itemName; }
+    public String getDescription() { return description; }
+    public String getCategory() { return category; }
+    public String getSellerName() { return sellerName; }
+    public LocalDateTime getStartTime() { return startTime; }
+    public LocalDateTime getEndTime() { return endTime; }
+    public double getCurrentHighestBid() { return state.getAmount(); }
+    public String getHighestBidderName() { return highestBidderName; }
+    public boolean isActive() { return !state.isClosed(); }
+    public int getBidCount() { return state.getBidCount(); }
+    public BidHistoryPage getRecentBids() { return recentBids; }
+    
+    // The text viewAuctionDetails prints; racing callers may both build it, harmlessly
+    public String render() {
+        String text = rendered;
+        if (text == null) {
+            text = buildText();
+            rendered = text;
+        }
+        return text;
+    }
+    
+    private String buildText() {
+        StringBuilder text = new StringBuilder(256 + 64 * recentBids.getBids().size());
+        text.append("=== Auction Details ===\n");
+        text.append("Item: ").append(itemName).append('\n');
+        text.append("Description: ").append(description).append('\n');
+        text.append("Category: ").append(category).append('\n');
+        text.append("Seller: ").append(sellerName).append('\n');
+        text.append("Start Time: ").append(startTime.format(Bid.TIMESTAMP_FORMAT)).append('\n');
+        text.append("End Time: ").append(endTime.format(Bid.TIMESTAMP_FORMAT)).append('\n');
+        text.append("Current Highest Bid: $").append(state.getAmount()).append('\n');
+        if (highestBidderName != null) {
+            text.append("Highest Bidder: ").append(highestBidderName).append('\n');
+        } else {
+            text.append("No bids yet.\n");
+        }
+        text.append("Status: ").append(isActive() ? "Active" : "Closed").append('\n');
+        text.append("\n--- Bid History ---");
+        List<BidHistoryEntry> bids = recentBids.getBids();
+        if (bids.isEmpty()) {
+            text.append("\nNo bids yet.");
+        }
+        for (BidHistoryEntry bid : bids) {
+            text.append('\n').append(bid.getTimestamp().format(Bid.TIMESTAMP_FORMAT))
+                    .append(" - ").append(bid.getBidderName())
+                    .append(": $").append(bid.getAmount());
+        }
+        int older = state.getBidCount() - bids.size();
+        if (older > 0) {
+            text.append("\n... ").append(older).append(older == 1 ? " earlier bid" : " earlier bids");
+        }
+        return text.toString();
+    }
+}
+
+// AuctionBrowseIndex class keeping open auctions sorted per category, once by end time
+// and once by current price. Bids and closes update only the affected auction's
+// entries, and a page read walks only the rows it returns plus any it filters out.
+class AuctionBrowseIndex {
+    private static final String ALL = "";
+    
+    // Sort key: end time or price in cents, tie-broken by auction ID
+    private static final class Key implements Comparable<Key> {
+        final long value;
+        final String auctionId;
+        final Auction auction;
+        
+        Key(long value, String auctionId, Auction auction) {
+            this.value = value;
+            this.auctionId = auctionId;
+            this.auction = auction;
+        }
+        
+        @Override
+        public int compareTo(Key other) {
+            int byValue = Long.compare(value, other.value);
+            return byValue != 0 ? byValue : auctionId.compareTo(other.auctionId);
+        }
+    }
+    
+    private static final class Entry {
+        final String category;
+        final double startingPrice;
+        final Key endKey;
+        final Key priceKey;
+        
+        Entry(String category, double startingPrice, Key endKey, Key priceKey) {
+            this.category = category;
+            this.startingPrice = startingPrice;
+            this.endKey = endKey;
+            this.priceKey = priceKey;
+        }
+    }
+    
+    private final Map<String, NavigableSet<Key>> byEndTime;
+    private final Map<String, NavigableSet<Key>> byPrice;
+    private final Map<String, Entry> entries; // auction ID -> current keys
+    
+    public AuctionBrowseIndex() {
+        this.byEndTime = new ConcurrentHashMap<>();
+        this.byPrice = new ConcurrentHashMap<>();
+        this.entries = new ConcurrentHashMap<>();
+    }
+    
+    public void add(Auction auction, Item item) {
+        String category = normalize(item.getCategory());
+        entries.compute(auction.getAuctionId(), (id, old) -> {
+            Key endKey = new Key(auction.getEndEpochMillis(), id, auction);
+            Key priceKey = new Key(priceCents(auction, item.getStartingPrice()), id, auction);
+            for (String bucket : new String[] {ALL, category}) {
+                sets(byEndTime, bucket).add(endKey);
+                sets(byPrice, bucket).add(priceKey);
+            }
+            return new Entry(category, item.getStartingPrice(), endKey, priceKey);
+        });
+    }
+    
+    // Re-reads the auction's price; compute serializes updates for one auction, so the
+    // last update always leaves the latest price in the index
+    public void priceChanged(Auction auction) {
+        entries.computeIfPresent(auction.getAuctionId(), (id, entry) -> {
+            long cents = priceCents(auction, entry.startingPrice);
+            if (cents == entry.priceKey.value) {
+                return entry;
+            }
+            Key priceKey = new Key(cents, id, auction);
+            for (String bucket : new String[] {ALL, entry.category}) {
+                NavigableSet<Key> set = sets(byPrice, bucket);
+                set.remove(entry.priceKey);
+                set.add(priceKey);
+            }
+            return new Entry(entry.category, entry.startingPrice, entry.endKey, priceKey);
+        });
+    }
+    
+    public void remove(Auction auction) {
+        entries.computeIfPresent(auction.getAuctionId(), (id, entry) -> {
+            for (String bucket : new String[] {ALL, entry.category}) {
+                sets(byEndTime, bucket).remove(entry.endKey);
+                sets(byPrice, bucket).remove(entry.priceKey);
+            }
+            return null;
+        });
+    }
+    
+    // category may be null for all categories; the cursor comes from a previous page
+    public AuctionPage page(String category, double minPrice, double maxPrice, AuctionSort sort,
+                            String cursor, int pageSize, long nowEpochMillis) {
+        String bucket = category == null ? ALL : normalize(category);
+        // Huge or infinite prices round to Long.MAX_VALUE; keep maxCents + 1 from overflowing
+        long minCents = Math.round(minPrice * 100);
+        long maxCents = Math.min(Math.round(maxPrice * 100), Long.MAX_VALUE - 1);
+        if (minCents > maxCents) {
+            return new AuctionPage(new ArrayList<>(), null);
+        }
+        boolean byPriceOrder = sort != AuctionSort.ENDING_SOONEST;
+        NavigableSet<Key> set = (byPriceOrder ? byPrice : byEndTime).getOrDefault(bucket, Collections.emptyNavigableSet());
+        
+        // For price order the range itself bounds the scan; the cursor narrows it further
+        NavigableSet<Key> view = set;
+        if (byPriceOrder) {
+            view = view.subSet(new Key(minCents, "", null), true, new Key(maxCents + 1, "", null), false);
+        }
+        if (sort == AuctionSort.PRICE_HIGH_TO_LOW) {
+            view = view.descendingSet();
+        }
+        if (cursor != null) {
+            view = view.tailSet(parseCursor(cursor), false);
+        }
+        
+        List<Auction> page = new ArrayList<>(pageSize);
+        Key last = null;
+        for (Key key : view) {
+            Auction auction = key.auction;
+            if (!auction.isActive() || auction.getEndEpochMillis() <= nowEpochMillis) {
+                continue;
+            }
+            if (!byPriceOrder) {
+                long cents = entryPrice(auction);
+                if (cents < minCents || cents > maxCents) {
+                    continue;
+                }
+            }
+            if (page.size() == pageSize) {
+                // There is at least one more matching row
+                return new AuctionPage(page, last.value + ":" + last.auctionId);
+            }
+            page.add(auction);
+            last = key;
+        }
+        return new AuctionPage(page, null);
+    }
+    
+    private long entryPrice(Auction auction) {
+        Entry entry = entries.get(auction.getAuctionId());
+        return entry == null ? Long.MIN_VALUE : entry.priceKey.value;
+    }
+    
+    // Current price: the highest bid, or the starting price before the first bid
+    private static long priceCents(Auction auction, double startingPrice) {
+        double price = auction.getCurrentHighestBidder() == null ? startingPrice : auction.getCurrentHighestBid();
+        return Math.round(price * 100);
+    }
+    
+    private static Key parseCursor(String cursor) {
+        int split = cursor.indexOf(':');
+        return new Key(Long.parseLong(cursor.substring(0, split)), cursor.substring(split + 1), null);
+    }
+    
+    // A cursor is "<sort value>:<auction ID>", as returned in AuctionPage
+    static boolean isValidCursor(String cursor) {
+        int split = cursor.indexOf(':');
+        if (split <= 0 || split == cursor.length() - 1) {
+            return false;
+        }
+        try {
+            Long.parseLong(cursor.substring(0, split));
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+    
+    private static NavigableSet<Key> sets(Map<String, NavigableSet<Key>> index, String bucket) {
+        return index.computeIfAbsent(bucket, b -> new ConcurrentSkipListSet<>());
+    }
+    
+    private static String normalize(String category) {
+        return category == null ? ALL : category.trim().toLowerCase(Locale.ROOT);
+    }
+}
+
+// AuctionSearchIndex class mapping the words of an item's name, description and
+// category to the open auctions selling it. An item is tokenized when its first open
+// auction is added and its terms are dropped when its last one closes; an auction's
+// postings are added when it opens and removed when it closes, and a term goes with
+// its last posting, so the index stays proportional to open auctions. Terms are kept
+// sorted, so a query word also matches the longer words it starts.
+class AuctionSearchIndex {
+    private static final int NAME_WEIGHT = 4;
+    private static final int CATEGORY_WEIGHT = 2;
+    private static final int DESCRIPTION_WEIGHT = 1;
+    private static final int MIN_PREFIX_LENGTH = 2; // shorter query words only match whole words
+    
+    // One search result: the sum of the auction's best weight for each query word
+    private static final class Hit {
+        final Auction auction;
+        final int score;
+        
+        Hit(Auction auction, int score) {
+            this.auction = auction;
+            this.score = score;
+        }
+    }
+    
+    // Best first: higher score, then ending sooner
+    private static final Comparator<Hit> RANK = Comparator.<Hit>comparingInt(hit -> -hit.score)
+            .thenComparingLong(hit -> hit.auction.getEndEpochMillis())
+            .thenComparing(hit -> hit.auction.getAuctionId());
+    
+    // An item's terms, kept while it has open auctions
+    private static final class ItemTerms {
+        final Map<String, Integer> weights; // term -> weight
+        int openAuctions; // guarded by the itemTerms map's compute
+        
+        ItemTerms(Map<String, Integer> weights) {
+            this.weights = weights;
+        }
+    }
+    
+    private final ConcurrentSkipListMap<String, Map<Auction, Integer>> postings; // term -> auction -> weight
+    private final Map<String, ItemTerms> itemTerms; // item ID -> its terms
+    
+    public AuctionSearchIndex() {
+        this.postings = new ConcurrentSkipListMap<>();
+        this.itemTerms = new ConcurrentHashMap<>();
+    }
+    
+    public void add(Auction auction, Item item) {
+        ItemTerms terms = itemTerms.compute(item.getItemId(), (id, current) -> {
+            ItemTerms next = current == null ? new ItemTerms(terms(item)) : current;
+            next.openAuctions++;
+            return next;
+        });
+        for (Map.Entry<String, Integer> term : terms.weights.entrySet()) {
+            addPosting(term.getKey(), auction, term.getValue());
+        }
+    }
+    
+    // Called once per added auction, when it closes
+    public void remove(Auction auction) {
+        ItemTerms terms = itemTerms.get(auction.getItemId());
+        if (terms == null) {
+            return;
+        }
+        for (String term : terms.weights.keySet()) {
+            removePosting(term, auction);
+        }
+        itemTerms.computeIfPresent(auction.getItemId(), (id, current) -> --current.openAuctions == 0 ? null : current);
+    }
+    
+    // A posting list is only changed under its own lock, and unlinked under it once it
+    // is empty; an add that finds its list unlinked starts again with a new one
+    private void addPosting(String term, Auction auction, int weight) {
+        while (true) {
+            Map<Auction, Integer> list = postings.computeIfAbsent(term, t -> new ConcurrentHashMap<>());
+            synchronized (list) {
+                if (postings.get(term) == list) {
+                    list.put(auction, weight);
+                    return;
+                }
+            }
+        }
+    }
+    
+    private void removePosting(String term, Auction auction) {
+        Map<Auction, Integer> list = postings.get(term);
+        if (list == null) {
+            return;
+        }
+        synchronized (list) {
+            list.remove(auction);
+            if (list.isEmpty()) {
+                postings.remove(term, list);
+            }
+        }
+    }
+    
+    private static Map<String, Integer> terms(Item item) {
+        Map<String, Integer> terms = new HashMap<>();
+        addTerms(terms, item.getName(), NAME_WEIGHT);
+        addTerms(terms, item.getCategory(), CATEGORY_WEIGHT);
+        addTerms(terms, item.getDescription(), DESCRIPTION_WEIGHT);
+        return terms;
+    }
+    
+    // Open auctions matching every word of the query, best ranked first. Candidates
+    // come from the rarest word; the other words are only probed for those candidates.
+    public List<Auction> search(String query, int limit, long nowEpochMillis) {
+        List<String> words = new ArrayList<>(new LinkedHashSet<>(tokenize(query)));
+        if (words.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        // One entry per query word: the posting lists of the terms it matches
+        List<List<Map<Auction, Integer>>> matches = new ArrayList<>(words.size());
+        for (String word : words) {
+            List<Map<Auction, Integer>> match = match(word);
+            if (match.isEmpty()) {
+                return Collections.emptyList();
+            }
+            matches.add(match);
+        }
+        matches.sort(Comparator.comparingLong(AuctionSearchIndex::size));
+        
+        // Keeps the best limit hits with the worst one on top
+        PriorityQueue<Hit> best = new PriorityQueue<>(limit + 1, RANK.reversed());
+        List<Map<Auction, Integer>> rarest = matches.get(0);
+        Set<Auction> seen = rarest.size() > 1 ? new HashSet<>() : null;
+        for (Map<Auction, Integer> list : rarest) {
+            for (Auction auction : list.keySet()) {
+                if (!auction.isActive() || auction.getEndEpochMillis() <= nowEpochMillis
+                        || (seen != null && !seen.add(auction))) {
+                    continue;
+                }
+                int score = 0;
+                for (List<Map<Auction, Integer>> match : matches) {
+                    int weight = weight(match, auction);
+                    if (weight == 0) {
+                        score = 0;
+                        break;
+                    }
+                    score += weight;
+                }
+                if (score > 0) {
+                    best.add(new Hit(auction, score));
+                    if (best.size() > limit) {
+                        best.poll();
+                    }
+                }
+            }
+        }
+        
+        List<Hit> hits = new ArrayList<>(best);
+        hits.sort(RANK);
+        List<Auction> result = new ArrayList<>(hits.size());
+        for (Hit hit : hits) {
+            result.add(hit.auction);
+        }
+        return result;
+    }
+    
+    // Posting lists of the word itself or, for long enough words, every term starting with it
+    private List<Map<Auction, Integer>> match(String word) {
+        Collection<Map<Auction, Integer>> lists = word.length() < MIN_PREFIX_LENGTH
+                ? Collections.singletonList(postings.getOrDefault(word, Collections.emptyMap()))
+                : postings.subMap(word, true, word + Character.MAX_VALUE, true).values();
+        List<Map<Auction, Integer>> match = new ArrayList<>();
+        for (Map<Auction, Integer> list : lists) {
+            if (!list.isEmpty()) {
+                match.add(list);
+            }
+        }
+        return match;
+    }
+    
+    private static long size(List<Map<Auction, Integer>> match) {
+        long size = 0;
+        for (Map<Auction, Integer> list : match) {
+            size += list.size();
+        }
+        return size;
+    }
+    
+    // The auction's best weight among a word's matching terms, 0 if none match
+    private static int weight(List<Map<Auction, Integer>> match, Auction auction) {
+        int best = 0;
+        for (Map<Auction, Integer> list : match) {
+            Integer weight = list.get(auction);
+            if (weight != null && weight > best) {
+                best = weight;
+            }
+        }
+        return best;
+    }
+    
+    private static void addTerms(Map<String, Integer> terms, String text, int weight) {
+        for (String term : tokenize(text)) {
+            terms.merge(term, weight, Math::max);
+        }
+    }
+    
+    // Lowercased runs of letters and digits
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+}
+
+// AuctionEventType enum listing what watchers of an auction are told about
+enum AuctionEventType {
+    NEW_HIGHEST_BID, // bidderId leads with amountCents
+    OUTBID,          // bidderId lost the lead to a bid of amountCents
+    AUCTION_ENDING,  // the auction ends at epochMillis; amountCents is the current price
+    AUCTION_CLOSED   // bidderId won for amountCents, or null if there were no bids
+}
+
+// AuctionEvent class: one immutable notification delivered to auction watchers
+class AuctionEvent {
+    private final AuctionEventType type;
+    private final String auctionId;
+    private final String bidderId;
+    private final long amountCents;
+    private final int sequence; // bid count when the event was raised
+    private final long epochMillis;
+    
+    public AuctionEvent(AuctionEventType type, String auctionId, String bidderId,
+                        long amountCents, int sequence, long epochMillis) {
+        this.type = type;
+        this.auctionId = auctionId;
+        this.bidderId = bidderId;
+        this.amountCents = amountCents;
+        this.sequence = sequence;
+        this.epochMillis = epochMillis;
+    }
+    
+    // Getters
+    public AuctionEventType getType() { return type; }
+    public String getAuctionId() { return auctionId; }
+    public String getBidderId() { return bidderId; }
+    public double getAmount() { return amountCents / 100.0; }
+    public long getAmountCents() { return amountCents; }
+    public int getSequence() { return sequence; }
+    public long getEpochMillis() { return epochMillis; }
+    
+    @Override
+    public String toString() {
+        return "AuctionEvent{" +
+                "type=" + type +
+                ", auctionId='" + auctionId + '\'' +
+                ", bidderId='" + bidderId + '\'' +
+                ", amount=" + getAmount() +
+                ", sequence=" + sequence +
+                '}';
+    }
+}
+
+// AuctionSubscription class: one watcher's mailbox. Price updates are conflated, so
+// only the newest undelivered NEW_HIGHEST_BID is kept. Newest means highest sequence,
+// since bids publish their events in no particular order, and a price no newer than
+// one already delivered is dropped. Other events wait in a bounded queue and are
+// dropped (and counted) when it is full. The listener runs on the event executor,
+// never on the bidding thread, and at most one drain per mailbox runs at a time, so a
+// listener sees its events one after another.
+class AuctionSubscription {
+    private static final int DRAIN_BATCH = 64; // events per run before yielding the thread
+    
+    private final String auctionId;
+    private final Consumer<AuctionEvent> listener;
+    private final int capacity;
+    private final Executor executor;
+    private final AtomicReference<AuctionEvent> latestPrice;
+    private int deliveredPriceSequence; // only touched by drain, which runs one at a time
+    private final Queue<AuctionEvent> events;
+    private final AtomicInteger queued;
+    private final AtomicBoolean scheduled;
+    private final AtomicBoolean closed; // set once AUCTION_CLOSED has been accepted
+    private final LongAdder conflated;
+    private final LongAdder dropped;
+    private volatile Runnable onCancel;
+    private volatile boolean cancelled;
+    
+    AuctionSubscription(String auctionId, Consumer<AuctionEvent> listener, int capacity, Executor executor) {
+        this.auctionId = auctionId;
+        this.listener = listener;
+        this.capacity = capacity;
+        this.executor = executor;
+        this.latestPrice = new AtomicReference<>();
+        this.events = new ConcurrentLinkedQueue<>();
+        this.queued = new AtomicInteger();
+        this.scheduled = new AtomicBoolean();
+        this.closed = new AtomicBoolean();
+        this.conflated = new LongAdder();
+        this.dropped = new LongAdder();
+    }
+    
+    // Getters
+    public String getAuctionId() { return auctionId; }
+    public boolean isCancelled() { return cancelled; }
+    public long getConflatedCount() { return conflated.sum(); }
+    public long getDroppedCount() { return dropped.sum(); }
+    
+    void setOnCancel(Runnable onCancel) {
+        this.onCancel = onCancel;
+    }
+    
+    // Stops delivery; an event already handed to the listener may still complete
+    public void cancel() {
+        cancelled = true;
+        Runnable action = onCancel;
+        if (action != null) {
+            action.run();
+        }
+    }
+    
+    void offer(AuctionEvent event) {
+        if (cancelled || closed.get()) {
+            return;
+        }
+        AuctionEventType type = event.getType();
+        if (type == AuctionEventType.NEW_HIGHEST_BID) {
+            AuctionEvent replaced = latestPrice.getAndAccumulate(event, (current, offered) ->
+                    current == null || offered.getSequence() > current.getSequence() ? offered : current);
+            if (replaced != null) {
+                conflated.increment();
+            }
+        } else if (type == AuctionEventType.AUCTION_CLOSED) {
+            // Never dropped, delivered at most once, and nothing is accepted after it
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            queued.incrementAndGet();
+            events.add(event);
+        } else if (queued.incrementAndGet() > capacity) {
+            queued.decrementAndGet();
+            dropped.increment();
+            return;
+        } else {
+            events.add(event);
+        }
+        schedule();
+    }
+    
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+    
+    private void drain() {
+        for (int delivered = 0; delivered < DRAIN_BATCH && !cancelled; delivered++) {
+            AuctionEvent event = latestPrice.getAndSet(null);
+            if (event != null) {
+                if (event.getSequence() <= deliveredPriceSequence) {
+                    conflated.increment(); // overtaken by a price already delivered
+                    continue;
+                }
+                deliveredPriceSequence = event.getSequence();
+            }
+            if (event == null) {
+                event = events.poll();
+                if (event == null) {
+                    break;
+                }
+                queued.decrementAndGet();
+            }
+            try {
+                listener.accept(event);
+            } catch (RuntimeException e) {
+                // A failing listener only loses this event
+            }
+        }
+        scheduled.set(false);
+        // Anything offered after the last poll found scheduled still set
+        if (!cancelled && (latestPrice.get() != null || !events.isEmpty())) {
+            schedule();
+        }
+    }
+}
+
+// AuctionEventBus class fanning auction events out to watchers. Each watched auction
+// has a topic whose own mailbox absorbs events from the bidding threads in constant
+// time, conflating price updates, and whose drain copies them into every watcher's
+// mailbox, so a burst of bids on a hot auction costs one fan-out rather than one per
+// bid. Auctions nobody watches have no topic and publishing to them is a map lookup.
+class AuctionEventBus {
+    private static final int TOPIC_CAPACITY = 4096;
+    private static final int SUBSCRIBER_CAPACITY = 256;
+    private static final long ENDING_NOTICE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    
+    private static final class Topic {
+        final List<AuctionSubscription> subscribers = new CopyOnWriteArrayList<>();
+        AuctionSubscription mailbox;
+        ScheduledFuture<?> endingNotice;
+    }
+    
+    private final Map<String, Topic> topics;
+    private final ExecutorService executor;
+    private ScheduledExecutorService timer; // created with the first topic
+    
+    public AuctionEventBus() {
+        this.topics = new ConcurrentHashMap<>();
+        this.executor = Executors.newWorkStealingPool();
+    }
+    
+    public AuctionSubscription subscribe(Auction auction, Consumer<AuctionEvent> listener) {
+        String auctionId = auction.getAuctionId();
+        AuctionSubscription subscription = new AuctionSubscription(auctionId, listener, SUBSCRIBER_CAPACITY, executor);
+        Topic topic = topics.computeIfAbsent(auctionId, id -> openTopic(auction));
+        topic.subscribers.add(subscription);
+        subscription.setOnCancel(() -> topic.subscribers.remove(subscription));
+        
+        // The auction may have closed before the topic existed, in which case no close
+        // event will ever reach it
+        if (!auction.isActive()) {
+            closeTopic(auctionId, topic);
+            subscription.offer(closedEvent(auction));
+        }
+        return subscription;
+    }
+    
+    public void bidAccepted(Auction auction, Bid bid) {
+        Topic topic = topics.get(auction.getAuctionId());
+        if (topic == null) {
+            return;
+        }
+        topic.mailbox.offer(new AuctionEvent(AuctionEventType.NEW_HIGHEST_BID, bid.getAuctionId(),
+                bid.getBidderId(), bid.getAmountCents(), bid.getSequence(), bid.getEpochMillis()));
+        if (bid.getSequence() > 1) {
+            Bid previous = auction.getBid(bid.getSequence() - 1);
+            if (!previous.getBidderId().equals(bid.getBidderId())) {
+                topic.mailbox.offer(new AuctionEvent(AuctionEventType.OUTBID, bid.getAuctionId(),
+                        previous.getBidderId(), bid.getAmountCents(), bid.getSequence(), bid.getEpochMillis()));
+            }
+        }
+    }
+    
+    public void auctionClosed(Auction auction) {
+        Topic topic = topics.get(auction.getAuctionId());
+        if (topic != null) {
+            topic.mailbox.offer(closedEvent(auction));
+            closeTopic(auction.getAuctionId(), topic);
+        }
+    }
+    
+    public void shutdown() {
+        executor.shutdown();
+        synchronized (this) {
+            if (timer != null) {
+                timer.shutdownNow();
+            }
+        }
+    }
+    
+    private Topic openTopic(Auction auction) {
+        Topic topic = new Topic();
+        topic.mailbox = new AuctionSubscription(auction.getAuctionId(), event -> {
+            for (AuctionSubscription subscriber : topic.subscribers) {
+                subscriber.offer(event);
+            }
+        }, TOPIC_CAPACITY, executor);
+        long delay = auction.getEndEpochMillis() - ENDING_NOTICE_MILLIS - System.currentTimeMillis();
+        topic.endingNotice = timer().schedule(() -> {
+            BidState state = auction.getBidState();
+            topic.mailbox.offer(new AuctionEvent(AuctionEventType.AUCTION_ENDING, auction.getAuctionId(),
+                    state.getBidderId(), state.getAmountCents(), state.getBidCount(), auction.getEndEpochMillis()));
+        }, Math.max(0, delay), TimeUnit.MILLISECONDS);
+        return topic;
+    }
+    
+    private void closeTopic(String auctionId, Topic topic) {
+        topic.endingNotice.cancel(false);
+        topics.remove(auctionId, topic);
+    }
+    
+    private synchronized ScheduledExecutorService timer() {
+        if (timer == null) {
+            timer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "auction-ending-notices");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return timer;
+    }
+    
+    private static AuctionEvent closedEvent(Auction auction) {
+        BidState state = auction.getBidState();
+        return new AuctionEvent(AuctionEventType.AUCTION_CLOSED, auction.getAuctionId(), state.getBidderId(),
+                state.getAmountCents(), state.getBidCount(), System.currentTimeMillis());
+    }
+}
+
+// AuctionExpiryWheel class closing auctions when their end time passes. Auctions sit
+// on a two-level hashed timing wheel: the fine wheel has one slot per tick for the
+// current revolution and the coarse wheel one slot per revolution, so scheduling is
+// O(1) and each auction is cascaded from the coarse to the fine wheel at most once.
+// An auction closed early is taken off again rather than held until its end time.
+class AuctionExpiryWheel {
+    private static final int WHEEL_BITS = 12;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    
+    private final long tickMillis;
+    private final Consumer<Auction> onExpire;
+    private final Queue<Auction> pending;  // scheduled but not yet placed on a wheel
+    private final Queue<Auction> cancelled; // closed early, not yet taken off the wheel
+    private final List<Set<Auction>> fine;
+    private final List<Set<Auction>> coarse;
+    private final ReentrantLock advanceLock;
+    private long currentTick;  // last processed tick, guarded by advanceLock
+    
+    public AuctionExpiryWheel(long tickMillis, long startEpochMillis, Consumer<Auction> onExpire) {
+        this.tickMillis = tickMillis;
+        this.onExpire = onExpire;
+        this.pending = new ConcurrentLinkedQueue<>();
+        this.cancelled = new ConcurrentLinkedQueue<>();
+        this.fine = new ArrayList<>(WHEEL_SIZE);
+        this.coarse = new ArrayList<>(WHEEL_SIZE);
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            fine.add(new LinkedHashSet<>());
+            coarse.add(new LinkedHashSet<>());
+        }
+        this.advanceLock = new ReentrantLock();
+        this.currentTick = startEpochMillis / tickMillis;
+    }
+    
+    // Safe to call from any thread; the auction is placed on the wheel by the next advance
+    public void schedule(Auction auction) {
+        pending.add(auction);
+    }
+    
+    // For an auction closed before its end time, so the wheel stops holding on to it.
+    // Safe to call from any thread; the next advance takes it off.
+    public void cancel(Auction auction) {
+        cancelled.add(auction);
+    }
+    
+    // Expires every auction whose end time is at or before nowEpochMillis. If another
+    // thread is already advancing the wheel this returns immediately.
+    public void advance(long nowEpochMillis) {
+        if (!advanceLock.tryLock()) {
+            return;
+        }
+        try {
+            List<Auction> expired = new ArrayList<>();
+            Auction auction;
+            while ((auction = pending.poll()) != null) {
+                place(auction, expired);
+            }
+            while ((auction = cancelled.poll()) != null) {
+                long deadlineTick = Math.floorDiv(auction.getEndEpochMillis() + tickMillis - 1, tickMillis);
+                if (!fine.get((int) (deadlineTick & WHEEL_MASK)).remove(auction)) {
+                    coarse.get((int) ((deadlineTick >>> WHEEL_BITS) & WHEEL_MASK)).remove(auction);
+                }
+            }
+            
+            long targetTick = nowEpochMillis / tickMillis;
+            while (currentTick < targetTick) {
+                currentTick++;
+                if ((currentTick & WHEEL_MASK) == 0) {
+                    cascade(expired);
+                }
+                int slot = (int) (currentTick & WHEEL_MASK);
+                if (!fine.get(slot).isEmpty()) {
+                    expired.addAll(fine.get(slot));
+                    fine.set(slot, new LinkedHashSet<>());
+                }
+            }
+            
+            for (Auction due : expired) {
+                onExpire.accept(due);
+            }
+        } finally {
+            advanceLock.unlock();
+        }
+    }
+    
+    private void place(Auction auction, List<Auction> expired) {
+        long deadlineTick = Math.floorDiv(auction.getEndEpochMillis() + tickMillis - 1, tickMillis);
+        if (deadlineTick <= currentTick) {
+            expired.add(auction);
+        } else if ((deadlineTick >>> WHEEL_BITS) == (currentTick >>> WHEEL_BITS)) {
+            fine.get((int) (deadlineTick & WHEEL_MASK)).add(auction);
+        } else {
+            coarse.get((int) ((deadlineTick >>> WHEEL_BITS) & WHEEL_MASK)).add(auction);
+        }
+    }
+    
+    // Called on entering a new revolution: moves that revolution's auctions onto the
+    // fine wheel. Auctions more than WHEEL_SIZE revolutions out stay where they are.
+    private void cascade(List<Auction> expired) {
+        int slot = (int) ((currentTick >>> WHEEL_BITS) & WHEEL_MASK);
+        Set<Auction> bucket = coarse.get(slot);
+        if (bucket.isEmpty()) {
+            return;
+        }
+        Set<Auction> later = new LinkedHashSet<>();
+        for (Auction auction : bucket) {
+            long deadlineTick = Math.floorDiv(auction.getEndEpochMillis() + tickMillis - 1, tickMillis);
+            if ((deadlineTick >>> WHEEL_BITS) == (currentTick >>> WHEEL_BITS)) {
+                place(auction, expired);
+            } else {
+                later.add(auction);
+            }
+        }
+        coarse.set(slot, later);
+    }
+}
+
+// AuctionJournal class persisting every change to the system in an append-only log.
+// Records are length-prefixed and checksummed: [length][crc32c][type][payload].
+// Appends copy the encoded record into an in-memory buffer; a background thread
+// writes and fsyncs the buffer every few milliseconds (group commit), so a bid
+// never waits for the disk. The log is split into segments. Closed segments are
+// folded into a snapshot in the background, and recovery loads the latest snapshot
+// and replays only the segments written after it.
+class AuctionJournal {
+    static final byte USER = 1;
+    static final byte ITEM = 2;
+    static final byte AUCTION_CREATED = 3;
+    static final byte BID_PLACED = 4;
+    static final byte AUCTION_CLOSED = 5;
+    static final byte SNAPSHOT_CLOSED = 6; // closed auction in a snapshot, already settled
+    static final byte PROXY_BID = 7;
+    
+    private static final int HEADER_BYTES = 8;
+    private static final int BUFFER_BYTES = 1 << 20;
+    private static final int SNAPSHOT_MAGIC = 0x41554353;
+    private static final long SEGMENT_BYTES = 64L << 20;
+    private static final long FLUSH_INTERVAL_MICROS = 2000;
+    
+    private final Path directory;
+    private final ThreadLocal<ByteBuffer> scratch;
+    private final Object flushMonitor;
+    private final ReentrantLock writeLock;
+    private ByteBuffer active;   // guarded by this
+    private ByteBuffer spare;    // guarded by flushMonitor
+    private FileChannel channel; // guarded by writeLock
+    private long segment;        // guarded by writeLock
+    private long segmentSize;    // guarded by writeLock
+    private boolean unforced;    // guarded by writeLock
+    private volatile IOException failure;
+    private final ScheduledExecutorService flusher;
+    private final ExecutorService compactor;
+    
+    private AuctionJournal(Path directory, long segment) throws IOException {
+        this.directory = directory;
+        this.scratch = ThreadLocal.withInitial(() -> ByteBuffer.allocate(4096));
+        this.flushMonitor = new Object();
+        this.writeLock = new ReentrantLock();
+        this.active = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        this.spare = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        this.segment = segment;
+        this.channel = openSegment(segment);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(daemon("auction-journal"));
+        this.compactor = Executors.newSingleThreadExecutor(daemon("auction-journal-compactor"));
+        flusher.scheduleWithFixedDelay(this::flushQuietly,
+                FLUSH_INTERVAL_MICROS, FLUSH_INTERVAL_MICROS, TimeUnit.MICROSECONDS);
+    }
+    
+    // Starts a new segment after everything already in the directory
+    public static AuctionJournal open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        long next = Math.max(latest(directory, "journal-", ".log"), latest(directory, "snapshot-", ".snap")) + 1;
+        return new AuctionJournal(directory, Math.max(next, 1));
+    }
+    
+    // Event records, called by AuctionSystem after validating each change
+    public void userRegistered(User user) {
+        append(encode(USER, buf -> putUser(buf, user)));
+    }
+    
+    public void itemCreated(Item item) {
+        append(encode(ITEM, buf -> putItem(buf, item)));
+    }
+    
+    public void auctionCreated(Auction auction, String sellerId) {
+        append(encode(AUCTION_CREATED, buf -> putAuction(buf, auction, sellerId)));
+    }
+    
+    public void bidPlaced(Bid bid) {
+        append(encode(BID_PLACED, buf -> putBid(buf, bid)));
+    }
+    
+    public void proxyBidPlaced(String auctionId, String bidderId, long maxCents) {
+        append(encode(PROXY_BID, buf -> putProxyBid(buf, auctionId, bidderId, maxCents)));
+    }
+    
+    public void auctionClosed(String auctionId, int bidCount) {
+        append(encode(AUCTION_CLOSED, buf -> {
+            putString(buf, auctionId);
+            buf.putInt(bidCount);
+        }));
+    }
+    
+    // Writes and fsyncs everything appended so far
+    public void sync() throws IOException {
+        flush();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+    
+    // The compactor is stopped last: the final flush may rotate and queue a compaction
+    public void close() {
+        flusher.shutdown();
+        try {
+            flush();
+            writeLock.lock();
+            try {
+                channel.close();
+            } finally {
+                writeLock.unlock();
+            }
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            compactor.shutdown();
+        }
+    }
+    
+    private void append(ByteBuffer record) {
+        if (failure != null) {
+            throw new UncheckedIOException("Journal is unavailable", failure);
+        }
+        while (true) {
+            synchronized (this) {
+                if (record.remaining() <= active.remaining()) {
+                    active.put(record);
+                    return;
+                }
+                if (active.position() == 0) {
+                    // Larger than a whole buffer: written directly, with the write lock
+                    // taken before leaving the monitor so later appends cannot overtake it
+                    writeLock.lock();
+                    break;
+                }
+            }
+            // Buffer full before the flusher got to it: flush outside the monitor, so
+            // other appenders keep filling the spare buffer meanwhile, and try again
+            flushOrFail();
+        }
+        try {
+            writeFully(record);
+        } catch (IOException e) {
+            failure = e;
+            throw new UncheckedIOException(e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    private void flushOrFail() {
+        try {
+            flush();
+        } catch (IOException e) {
+            failure = e;
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    // Swaps the buffers so appenders never wait for the disk, then writes and fsyncs.
+    // The write lock is taken before the swap is published, so a later inline write
+    // can never overtake the records being flushed here.
+    private void flush() throws IOException {
+        synchronized (flushMonitor) {
+            ByteBuffer filled;
+            synchronized (this) {
+                filled = active;
+                active = spare;
+                spare = filled;
+                writeLock.lock();
+            }
+            try {
+                writeBuffer(filled);
+                if (unforced) {
+                    channel.force(false);
+                    unforced = false;
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+    
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+    
+    private void writeBuffer(ByteBuffer buffer) throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+        if (segmentSize >= SEGMENT_BYTES) {
+            rotate();
+        }
+    }
+    
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            segmentSize += channel.write(buffer);
+        }
+        unforced = true;
+    }
+    
+    // Closes the current segment and starts the next one; the closed segment is
+    // then folded into a new snapshot in the background
+    private void rotate() throws IOException {
+        channel.force(false);
+        channel.close();
+        segment++;
+        segmentSize = 0;
+        unforced = false;
+        channel = openSegment(segment);
+        long closedBefore = segment;
+        compactor.execute(() -> compact(closedBefore));
+    }
+    
+    private FileChannel openSegment(long number) throws IOException {
+        return FileChannel.open(directory.resolve(String.format("journal-%016d.log", number)),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+    
+    // Builds snapshot-N from the previous snapshot and segments below N, then deletes
+    // the files it replaces. Records still held back are not a crash gap here: the
+    // records they wait for may simply be in segment N or later, so they are carried
+    // into the snapshot as they are and keep waiting there.
+    private void compact(long upTo) {
+        try {
+            long previous = latest(directory, "snapshot-", ".snap");
+            AuctionSystem shadow = new AuctionSystem();
+            Replayer replayer = load(directory, shadow, upTo, false);
+            writeSnapshot(directory, shadow, replayer, upTo);
+            for (long number : numbers(directory, "journal-", ".log")) {
+                if (number < upTo) {
+                    Files.deleteIfExists(directory.resolve(String.format("journal-%016d.log", number)));
+                }
+            }
+            if (previous > 0) {
+                Files.deleteIfExists(directory.resolve(String.format("snapshot-%016d.snap", previous)));
+            }
+        } catch (IOException e) {
+            System.err.println("Journal compaction failed: " + e.getMessage());
+        }
+    }
+    
+    // Recovery: latest snapshot plus every segment after it
+    public static void replay(Path directory, AuctionSystem system) throws IOException {
+        if (Files.isDirectory(directory)) {
+            load(directory, system, Long.MAX_VALUE, true).finish();
+        }
+    }
+    
+    // Replays the history up to its first torn or corrupt record. Everything after that
+    // point is dropped, never skipped over: with repair, the damaged segment is cut back
+    // to its last good record and every later segment is deleted, so the journal that
+    // continues from here has no gap; without it (compaction), loading fails instead.
+    // A damaged snapshot always fails. Records still held back are left in the returned
+    // replayer for the caller to finish or carry forward.
+    private static Replayer load(Path directory, AuctionSystem system, long segmentsBelow,
+                                 boolean repair) throws IOException {
+        Replayer replayer = new Replayer(system);
+        long snapshot = latest(directory, "snapshot-", ".snap");
+        if (snapshot > 0) {
+            Path file = directory.resolve(String.format("snapshot-%016d.snap", snapshot));
+            if (read(file, replayer, true) < Files.size(file)) {
+                throw new IOException("Corrupt snapshot: " + file);
+            }
+        }
+        Path damaged = null;
+        for (long number : numbers(directory, "journal-", ".log")) {
+            if (number < snapshot || number >= segmentsBelow) {
+                continue;
+            }
+            Path file = directory.resolve(String.format("journal-%016d.log", number));
+            if (damaged != null) {
+                System.err.println("Discarding journal segment after a damaged one: " + file);
+                Files.delete(file);
+                continue;
+            }
+            long good = read(file, replayer, false);
+            if (good < Files.size(file)) {
+                if (!repair) {
+                    throw new IOException("Corrupt journal segment " + file + " at offset " + good);
+                }
+                try (FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    out.truncate(good);
+                    out.force(true);
+                }
+                damaged = file;
+            }
+        }
+        return replayer;
+    }
+    
+    // Maps the file and applies records until the end or the first torn/corrupt record.
+    // Returns the offset just past the last record applied.
+    private static long read(Path file, Replayer replayer, boolean snapshot) throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (in.size() == 0) {
+                return 0;
+            }
+            MappedByteBuffer map = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            if (snapshot && map.getInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a snapshot: " + file);
+            }
+            CRC32C crc = new CRC32C();
+            int good = map.position();
+            while (map.remaining() >= HEADER_BYTES) {
+                int length = map.getInt();
+                int checksum = map.getInt();
+                if (length <= 0 || length > map.remaining()) {
+                    break;
+                }
+                ByteBuffer record = map.slice().limit(length);
+                crc.reset();
+                crc.update(record.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                replayer.apply(record.get(), record);
+                map.position(map.position() + length);
+                good = map.position();
+            }
+            return good;
+        }
+    }
+    
+    private static void writeSnapshot(Path directory, AuctionSystem system, Replayer held,
+                                      long number) throws IOException {
+        Path target = directory.resolve(String.format("snapshot-%016d.snap", number));
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+            ByteBuffer record = ByteBuffer.allocate(4096);
+            buffer.putInt(SNAPSHOT_MAGIC);
+            for (User user : system.allUsers()) {
+                record = encode(record, USER, buf -> putUser(buf, user));
+                buffer = write(out, buffer, record);
+            }
+            for (Item item : system.allItems()) {
+                record = encode(record, ITEM, buf -> putItem(buf, item));
+                buffer = write(out, buffer, record);
+            }
+            for (Auction auction : system.allAuctions()) {
+                String sellerId = system.getItemById(auction.getItemId()).getSellerId();
+                record = encode(record, AUCTION_CREATED, buf -> putAuction(buf, auction, sellerId));
+                buffer = write(out, buffer, record);
+                int bidCount = auction.getBidState().getBidCount();
+                for (int sequence = 1; sequence <= bidCount; sequence++) {
+                    Bid bid = auction.getBid(sequence);
+                    record = encode(record, BID_PLACED, buf -> putBid(buf, bid));
+                    buffer = write(out, buffer, record);
+                }
+                ProxyBidBook book = auction.getProxyBook();
+                if (book != null && auction.isActive()) {
+                    List<ProxyBid> proxies;
+                    synchronized (book) {
+                        proxies = book.all();
+                    }
+                    for (ProxyBid proxy : proxies) {
+                        record = encode(record, PROXY_BID, buf -> putProxyBid(buf, auction.getAuctionId(),
+                                proxy.getBidderId(), proxy.getMaxCents()));
+                        buffer = write(out, buffer, record);
+                    }
+                }
+                if (!auction.isActive()) {
+                    record = encode(record, SNAPSHOT_CLOSED, buf -> putString(buf, auction.getAuctionId()));
+                    buffer = write(out, buffer, record);
+                }
+            }
+            // After every auction, so that reading them back only holds them again
+            for (Bid bid : held.heldBids()) {
+                record = encode(record, BID_PLACED, buf -> putBid(buf, bid));
+                buffer = write(out, buffer, record);
+            }
+            for (Map.Entry<String, Integer> close : held.heldCloses().entrySet()) {
+                record = encode(record, AUCTION_CLOSED, buf -> {
+                    putString(buf, close.getKey());
+                    buf.putInt(close.getValue());
+                });
+                buffer = write(out, buffer, record);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+    
+    private static ByteBuffer write(FileChannel out, ByteBuffer buffer, ByteBuffer record) throws IOException {
+        ByteBuffer view = record.duplicate();
+        if (view.remaining() > buffer.remaining()) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            buffer.clear();
+        }
+        if (view.remaining() > buffer.remaining()) {
+            while (view.hasRemaining()) {
+                out.write(view);
+            }
+        } else {
+            buffer.put(view);
+        }
+        return buffer;
+    }
+    
+    // Encodes into this thread's scratch buffer, growing it for oversized records
+    private ByteBuffer encode(byte type, Consumer<ByteBuffer> body) {
+        ByteBuffer buffer = encode(scratch.get(), type, body);
+        scratch.set(buffer);
+        return buffer;
+    }
+    
+    private static ByteBuffer encode(ByteBuffer buffer, byte type, Consumer<ByteBuffer> body) {
+        while (true) {
+            try {
+                buffer.clear();
+                buffer.position(HEADER_BYTES);
+                buffer.put(type);
+                body.accept(buffer);
+                break;
+            } catch (BufferOverflowException e) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+            }
+        }
+        int length = buffer.position() - HEADER_BYTES;
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.array(), HEADER_BYTES, length);
+        buffer.putInt(0, length);
+        buffer.putInt(4, (int) crc.getValue());
+        buffer.flip();
+        return buffer;
+    }
+    
+    private static void putUser(ByteBuffer buf, User user) {
+        putString(buf, user.getUserId());
+        putString(buf, user.getUsername());
+        putString(buf, user.getEmail());
+        putString(buf, user.getPassword());
+        buf.putLong(user.getBalanceCents());
+    }
+    
+    private static void putItem(ByteBuffer buf, Item item) {
+        putString(buf, item.getItemId());
+        putString(buf, item.getName());
+        putString(buf, item.getDescription());
+        buf.putDouble(item.getStartingPrice());
+        putString(buf, item.getSellerId());
+        putString(buf, item.getCategory());
+    }
+    
+    private static void putAuction(ByteBuffer buf, Auction auction, String sellerId) {
+        putString(buf, auction.getAuctionId());
+        putString(buf, auction.getItemId());
+        putString(buf, sellerId);
+        putTime(buf, auction.getStartTime());
+        putTime(buf, auction.getEndTime());
+    }
+    
+    private static void putBid(ByteBuffer buf, Bid bid) {
+        buf.putInt(bid.getSequence());
+        putString(buf, bid.getAuctionId());
+        putString(buf, bid.getBidderId());
+        buf.putLong(bid.getAmountCents());
+        buf.putLong(bid.getEpochMillis());
+    }
+    
+    private static void putProxyBid(ByteBuffer buf, String auctionId, String bidderId, long maxCents) {
+        putString(buf, auctionId);
+        putString(buf, bidderId);
+        buf.putLong(maxCents);
+    }
+    
+    static void putString(ByteBuffer buf, String value) {
+        if (value == null) {
+            buf.putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buf.putInt(bytes.length);
+        buf.put(bytes);
+    }
+    
+    static String getString(ByteBuffer buf) {
+        int length = buf.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    static void putTime(ByteBuffer buf, LocalDateTime time) {
+        buf.putLong(time.toEpochSecond(ZoneOffset.UTC));
+        buf.putInt(time.getNano());
+    }
+    
+    static LocalDateTime getTime(ByteBuffer buf) {
+        return LocalDateTime.ofEpochSecond(buf.getLong(), buf.getInt(), ZoneOffset.UTC);
+    }
+    
+    // Applies records to a system. Bids on one auction can reach the journal slightly
+    // out of order, so each carries its position in the auction's history and is held
+    // back until the bids before it have been applied; closes wait for their last bid.
+    private static final class Replayer {
+        private final AuctionSystem system;
+        private final Map<String, TreeMap<Integer, Bid>> heldBids = new HashMap<>();
+        private final Map<String, Integer> heldCloses = new HashMap<>();
+        
+        Replayer(AuctionSystem system) {
+            this.system = system;
+        }
+        
+        void apply(byte type, ByteBuffer in) {
+            switch (type) {
+                case USER:
+                    system.addUser(new User(getString(in), getString(in), getString(in),
+                            getString(in), in.getLong()));
+                    break;
+                case ITEM:
+                    system.addItem(new Item(getString(in), getString(in), getString(in),
+                            in.getDouble(), getString(in), getString(in)));
+                    break;
+                case AUCTION_CREATED: {
+                    String auctionId = getString(in);
+                    String itemId = getString(in);
+                    String sellerId = getString(in);
+                    system.addAuction(new Auction(auctionId, itemId, getTime(in), getTime(in)), sellerId);
+                    break;
+                }
+                case BID_PLACED: {
+                    int sequence = in.getInt();
+                    Bid bid = new Bid(getString(in), sequence, getString(in), in.getLong(), in.getLong());
+                    heldBids.computeIfAbsent(bid.getAuctionId(), id -> new TreeMap<>()).put(bid.getSequence(), bid);
+                    drain(bid.getAuctionId());
+                    break;
+                }
+                case AUCTION_CLOSED: {
+                    String auctionId = getString(in);
+                    heldCloses.put(auctionId, in.getInt());
+                    drain(auctionId);
+                    break;
+                }
+                case SNAPSHOT_CLOSED:
+                    system.restoreClosed(getString(in));
+                    break;
+                case PROXY_BID:
+                    system.restoreProxyBid(getString(in), getString(in), in.getLong());
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown journal record type " + type);
+            }
+        }
+        
+        private void drain(String auctionId) {
+            Auction auction = system.replayedAuction(auctionId);
+            TreeMap<Integer, Bid> held = heldBids.get(auctionId);
+            while (held != null) {
+                Bid next = held.remove(auction.getBidState().getBidCount() + 1);
+                if (next == null) {
+                    break;
+                }
+                system.addBid(next);
+            }
+            if (held != null && held.isEmpty()) {
+                heldBids.remove(auctionId);
+            }
+            Integer closeAt = heldCloses.get(auctionId);
+            if (closeAt != null && auction.getBidState().getBidCount() >= closeAt) {
+                heldCloses.remove(auctionId);
+                system.replayClose(auctionId);
+            }
+        }
+        
+        List<Bid> heldBids() {
+            List<Bid> bids = new ArrayList<>();
+            for (TreeMap<Integer, Bid> held : heldBids.values()) {
+                bids.addAll(held.values());
+            }
+            return bids;
+        }
+        
+        Map<String, Integer> heldCloses() {
+            return heldCloses;
+        }
+        
+        // At the end of recovery, anything still held had a gap before it, i.e. the crash
+        // cut off an earlier record. Applying it would invent a history that never
+        // happened, so every auction keeps only its contiguous run of bids; a close still
+        // waiting for a lost bid settles on the bids that survived.
+        void finish() {
+            int dropped = 0;
+            for (TreeMap<Integer, Bid> held : heldBids.values()) {
+                dropped += held.size();
+            }
+            if (dropped > 0) {
+                System.err.println("Journal replay dropped " + dropped + " bids that followed a lost bid");
+            }
+            heldBids.clear();
+            for (String auctionId : heldCloses.keySet()) {
+                system.replayClose(auctionId);
+            }
+            heldCloses.clear();
+        }
+    }
+    
+    private static long latest(Path directory, String prefix, String suffix) throws IOException {
+        List<Long> numbers = numbers(directory, prefix, suffix);
+        return numbers.isEmpty() ? 0 : numbers.get(numbers.size() - 1);
+    }
+    
+    private static List<Long> numbers(Path directory, String prefix, String suffix) throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                numbers.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+    
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
+
+// AuctionArchive class keeping closed auctions and their bids off the heap. Each
+// auction is one Deflate-compressed record appended to a single file: its IDs and
+// times, then every bid as the bidder key and the increase in amount and time over
+// the bid before it, which compress far better than the raw values. Whole 64 MB
+// regions of the file are read through read-only memory maps and the unfinished
+// last region with positional reads, so only the index (auction key -> offset)
+// stays on the heap, along with the few hundred auctions read most recently. The
+// journal remains the record of every auction; the file is truncated when opened
+// and refilled as auctions are archived again.
+class AuctionArchive {
+    private static final int REGION_BITS = 26;
+    private static final long REGION_BYTES = 1L << REGION_BITS;
+    private static final int HEADER_BYTES = 8; // [compressed length][raw length]
+    private static final int RECENT_AUCTIONS = 256;
+    
+    private final FileChannel channel;
+    private final LongMap<Long> index; // auction key -> offset of its record
+    private final Map<Long, Auction> recent; // decoded, least recently read first; guarded by itself
+    private final Deflater deflater;   // guarded by this
+    private ByteBuffer raw;            // guarded by this
+    private ByteBuffer compressed;     // guarded by this
+    private volatile long size;
+    private volatile MappedByteBuffer[] regions;
+    
+    private AuctionArchive(FileChannel channel) {
+        this.channel = channel;
+        this.index = new LongMap<>();
+        this.recent = new LinkedHashMap<>(RECENT_AUCTIONS * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Auction> eldest) {
+                return size() > RECENT_AUCTIONS;
+            }
+        };
+        this.deflater = new Deflater();
+        this.raw = ByteBuffer.allocate(4096);
+        this.compressed = ByteBuffer.allocate(4096);
+        this.size = 0;
+        this.regions = new MappedByteBuffer[0];
+    }
+    
+    public static AuctionArchive open(Path file) throws IOException {
+        return new AuctionArchive(FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE));
+    }
+    
+    public boolean contains(long auctionKey) {
+        return index.get(auctionKey) != null;
+    }
+    
+    public int size() {
+        return index.size();
+    }
+    
+    // Appends a closed auction. It is indexed only once the whole record is written,
+    // so a reader that finds the key can always read the record back.
+    public synchronized void append(Auction auction) throws IOException {
+        BidState last = auction.getBidState();
+        while (true) {
+            try {
+                raw.clear();
+                encode(raw, auction, last.getBidCount());
+                break;
+            } catch (BufferOverflowException e) {
+                raw = ByteBuffer.allocate(raw.capacity() * 2);
+            }
+        }
+        
+        deflater.reset();
+        deflater.setInput(raw.array(), 0, raw.position());
+        deflater.finish();
+        compressed.clear();
+        compressed.position(HEADER_BYTES);
+        while (!deflater.finished()) {
+            if (!compressed.hasRemaining()) {
+                compressed = ByteBuffer.allocate(compressed.capacity() * 2).put(compressed.flip());
+            }
+            deflater.deflate(compressed);
+        }
+        compressed.putInt(0, compressed.position() - HEADER_BYTES);
+        compressed.putInt(4, raw.position());
+        compressed.flip();
+        
+        long offset = size;
+        while (compressed.hasRemaining()) {
+            channel.write(compressed, offset + compressed.position());
+        }
+        size = offset + compressed.limit();
+        index.put(auction.getAuctionKey(), offset);
+    }
+    
+    // Rebuilds the auction with its bids, closed; null if it is not in the archive.
+    // A closed auction never changes, so recently read ones are kept and handed out
+    // again, which also keeps their cached details.
+    public Auction get(long auctionKey) throws IOException {
+        synchronized (recent) {
+            Auction auction = recent.get(auctionKey);
+            if (auction != null) {
+                return auction;
+            }
+        }
+        Long offset = index.get(auctionKey);
+        if (offset == null) {
+            return null;
+        }
+        Auction auction = load(offset);
+        synchronized (recent) {
+            Auction raced = recent.putIfAbsent(auctionKey, auction);
+            return raced != null ? raced : auction;
+        }
+    }
+    
+    private Auction load(long offset) throws IOException {
+        ByteBuffer header = read(offset, HEADER_BYTES);
+        int length = header.getInt();
+        byte[] bytes = new byte[header.getInt()];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(read(offset + HEADER_BYTES, length));
+            int filled = 0;
+            while (filled < bytes.length) {
+                int inflated = inflater.inflate(bytes, filled, bytes.length - filled);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("Corrupt archive record at " + offset);
+                }
+                filled += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt archive record at " + offset, e);
+        } finally {
+            inflater.end();
+        }
+        return decode(ByteBuffer.wrap(bytes));
+    }
+    
+    public synchronized void close() throws IOException {
+        deflater.end();
+        channel.close();
+    }
+    
+    // Bid amounts only ever rise, but bids can be logged slightly out of time order,
+    // so the time step is zigzag-encoded
+    private static void encode(ByteBuffer buf, Auction auction, int bidCount) {
+        AuctionJournal.putString(buf, auction.getAuctionId());
+        AuctionJournal.putString(buf, auction.getItemId());
+        AuctionJournal.putTime(buf, auction.getStartTime());
+        AuctionJournal.putTime(buf, auction.getEndTime());
+        buf.putInt(bidCount);
+        BidLog.Cursor cursor = new BidLog.Cursor();
+        long amountCents = 0;
+        long epochMillis = 0;
+        for (int i = 0; i < bidCount; i++) {
+            auction.getBidLog().read(i, cursor);
+            buf.putLong(cursor.getBidderKey());
+            putVarLong(buf, cursor.getAmountCents() - amountCents);
+            long step = cursor.getEpochMillis() - epochMillis;
+            putVarLong(buf, (step << 1) ^ (step >> 63));
+            amountCents = cursor.getAmountCents();
+            epochMillis = cursor.getEpochMillis();
+        }
+    }
+    
+    private static Auction decode(ByteBuffer buf) {
+        String auctionId = AuctionJournal.getString(buf);
+        String itemId = AuctionJournal.getString(buf);
+        LocalDateTime startTime = AuctionJournal.getTime(buf);
+        LocalDateTime endTime = AuctionJournal.getTime(buf);
+        Auction auction = new Auction(auctionId, itemId, startTime, endTime);
+        int bidCount = buf.getInt();
+        long amountCents = 0;
+        long epochMillis = 0;
+        for (int i = 0; i < bidCount; i++) {
+            String bidderId = IdGenerator.format(buf.getLong());
+            amountCents += getVarLong(buf);
+            long step = getVarLong(buf);
+            epochMillis += (step >>> 1) ^ -(step & 1);
+            auction.addBid(bidderId, amountCents, epochMillis);
+        }
+        auction.close();
+        return auction;
+    }
+    
+    private static void putVarLong(ByteBuffer buf, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+    
+    private static long getVarLong(ByteBuffer buf) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buf.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+    
+    // The bytes at [offset, offset + length): a view of the mapped region holding them,
+    // or a copy when they are in the unfinished last region or straddle two regions
+    private ByteBuffer read(long offset, int length) throws IOException {
+        int number = (int) (offset >>> REGION_BITS);
+        long regionEnd = (long) (number + 1) << REGION_BITS;
+        if (offset + length <= regionEnd && regionEnd <= size) {
+            return region(number).slice((int) (offset & (REGION_BYTES - 1)), length);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Archive record at " + offset + " is truncated");
+            }
+        }
+        return buffer.flip();
+    }
+    
+    private MappedByteBuffer region(int number) throws IOException {
+        MappedByteBuffer[] current = regions;
+        if (number < current.length && current[number] != null) {
+            return current[number];
+        }
+        return mapRegion(number);
+    }
+    
+    private synchronized MappedByteBuffer mapRegion(int number) throws IOException {
+        MappedByteBuffer[] current = regions;
+        if (number >= current.length) {
+            current = Arrays.copyOf(current, Math.max(number + 1, current.length * 2));
+        } else if (current[number] != null) {
+            return current[number];
+        } else {
+            current = current.clone();
+        }
+        MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY,
+                (long) number << REGION_BITS, REGION_BYTES);
+        current[number] = region;
+        regions = current;
+        return region;
+    }
+}
+
+// CatalogImportResult class: what a bulk import loaded and what it rejected
+class CatalogImportResult {
+    private static final int MAX_ERRORS = 100; // rejected records reported in detail
+    
+    private final AtomicLong users = new AtomicLong();
+    private final AtomicLong items = new AtomicLong();
+    private final AtomicLong auctions = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final Queue<String> errors = new ConcurrentLinkedQueue<>();
+    private volatile long elapsedMillis;
+    
+    // Getters
+    public long getUsers() { return users.get(); }
+    public long getItems() { return items.get(); }
+    public long getAuctions() { return auctions.get(); }
+    public long getRejected() { return rejected.get(); }
+    public long getElapsedMillis() { return elapsedMillis; }
+    
+    // The first rejections, as "line N: reason"
+    public List<String> getErrors() {
+        return new ArrayList<>(errors);
+    }
+    
+    void imported(String type) {
+        if (type.equals(AuctionCatalog.USER)) {
+            users.incrementAndGet();
+        } else if (type.equals(AuctionCatalog.ITEM)) {
+            items.incrementAndGet();
+        } else {
+            auctions.incrementAndGet();
+        }
+    }
+    
+    void reject(long line, String reason) {
+        if (rejected.incrementAndGet() <= MAX_ERRORS) {
+            errors.add("line " + line + ": " + reason);
+        }
+    }
+    
+    void setElapsedMillis(long elapsedMillis) {
+        this.elapsedMillis = elapsedMillis;
+    }
+    
+    @Override
+    public String toString() {
+        return "CatalogImportResult{" +
+                "users=" + users +
+                ", items=" + items +
+                ", auctions=" + auctions +
+                ", rejected=" + rejected +
+                ", elapsedMillis=" + elapsedMillis +
+                '}';
+    }
+}
+
+// AuctionCatalog class bulk-loading users, items and auctions from CSV and writing
+// them back out. Each record starts with its type, and IDs are kept as they are, so a
+// catalog can move between systems:
+//   user,<userId>,<username>,<email>,<password>,<balanceCents>
+//   item,<itemId>,<name>,<description>,<startingPrice>,<sellerId>,<category>
+//   auction,<auctionId>,<itemId>,<startTime>,<endTime>
+// Times are ISO-8601 local date-times. Fields holding commas, quotes or line breaks
+// are quoted, with quotes doubled; lines starting with # are comments.
+//
+// One thread reads records and cuts them into chunks, which a pool parses and applies
+// in parallel straight into the system's maps. A change of record type waits for the
+// chunks before it, so items always find their seller and auctions their item; files
+// written by export have one section per type and wait only twice. At most two chunks
+// per worker are in flight, which keeps memory flat however large the file is.
+class AuctionCatalog {
+    static final String USER = "user";
+    static final String ITEM = "item";
+    static final String AUCTION = "auction";
+    
+    private static final int CHUNK_RECORDS = 4096;
+    private static final int WRITE_BUFFER_CHARS = 1 << 16;
+    
+    // One record of the file with the line it starts on
+    private static final class Record {
+        final long line;
+        final String text;
+        
+        Record(long line, String text) {
+            this.line = line;
+            this.text = text;
+        }
+    }
+    
+    // Reads whole records, joining lines while a quoted field is still open
+    private static final class RecordReader {
+        private final BufferedReader in;
+        private long line;
+        
+        RecordReader(BufferedReader in) {
+            this.in = in;
+        }
+        
+        Record next() throws IOException {
+            String text;
+            do {
+                text = in.readLine();
+                line++;
+                if (text == null) {
+                    return null;
+                }
+            } while (text.isEmpty() || text.charAt(0) == '#');
+            long start = line;
+            while (quotes(text) % 2 != 0) {
+                String more = in.readLine();
+                if (more == null) {
+                    break; // unterminated quote, reported by the parser
+                }
+                line++;
+                text = text + '\n' + more;
+            }
+            return new Record(start, text);
+        }
+        
+        private static int quotes(String text) {
+            int count = 0;
+            for (int i = text.indexOf('"'); i >= 0; i = text.indexOf('"', i + 1)) {
+                count++;
+            }
+            return count;
+        }
+    }
+    
+    public static CatalogImportResult load(Path file, AuctionSystem system) throws IOException {
+        long start = System.nanoTime();
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "catalog-import");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Semaphore inFlight = new Semaphore(threads * 2);
+        List<CompletableFuture<Void>> section = new ArrayList<>();
+        CatalogImportResult result = new CatalogImportResult();
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            RecordReader reader = new RecordReader(in);
+            List<Record> chunk = new ArrayList<>(CHUNK_RECORDS);
+            String type = null;
+            Record record;
+            while ((record = reader.next()) != null) {
+                String recordType = typeOf(record.text);
+                if (!recordType.equals(type)) {
+                    submit(chunk, system, result, workers, inFlight, section);
+                    chunk = new ArrayList<>(CHUNK_RECORDS);
+                    CompletableFuture.allOf(section.toArray(new CompletableFuture<?>[0])).join();
+                    section.clear();
+                    type = recordType;
+                }
+                chunk.add(record);
+                if (chunk.size() == CHUNK_RECORDS) {
+                    submit(chunk, system, result, workers, inFlight, section);
+                    chunk = new ArrayList<>(CHUNK_RECORDS);
+                }
+            }
+            submit(chunk, system, result, workers, inFlight, section);
+            CompletableFuture.allOf(section.toArray(new CompletableFuture<?>[0])).join();
+        } finally {
+            workers.shutdown();
+        }
+        result.setElapsedMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return result;
+    }
+    
+    // Writes every user and item and the open auctions, through a temporary file that
+    // replaces the target only once complete. Closed auctions and bids are history,
+    // which the journal keeps; a catalog holds what can still be traded. Returns the
+    // number of records written.
+    public static long export(AuctionSystem system, Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        long records = 0;
+        try (BufferedWriter out = new BufferedWriter(
+                new OutputStreamWriter(Files.newOutputStream(temp), StandardCharsets.UTF_8), WRITE_BUFFER_CHARS)) {
+            out.write("# " + USER + ",userId,username,email,password,balanceCents\n");
+            for (User user : system.allUsers()) {
+                writeRecord(out, USER, user.getUserId(), user.getUsername(), user.getEmail(),
+                        user.getPassword(), Long.toString(user.getBalanceCents()));
+                records++;
+            }
+            out.write("# " + ITEM + ",itemId,name,description,startingPrice,sellerId,category\n");
+            for (Item item : system.allItems()) {
+                writeRecord(out, ITEM, item.getItemId(), item.getName(), item.getDescription(),
+                        Double.toString(item.getStartingPrice()), item.getSellerId(), item.getCategory());
+                records++;
+            }
+            out.write("# " + AUCTION + ",auctionId,itemId,startTime,endTime\n");
+            for (Auction auction : system.allAuctions()) {
+                if (auction.isActive()) {
+                    writeRecord(out, AUCTION, auction.getAuctionId(), auction.getItemId(),
+                            auction.getStartTime().toString(), auction.getEndTime().toString());
+                    records++;
+                }
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return records;
+    }
+    
+    private static void submit(List<Record> chunk, AuctionSystem system, CatalogImportResult result,
+                               ExecutorService workers, Semaphore inFlight, List<CompletableFuture<Void>> section) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        inFlight.acquireUninterruptibly();
+        section.add(CompletableFuture.runAsync(() -> {
+            try {
+                for (Record record : chunk) {
+                    apply(record, system, result);
+                }
+            } finally {
+                inFlight.release();
+            }
+        }, workers));
+    }
+    
+    private static void apply(Record record, AuctionSystem system, CatalogImportResult result) {
+        try {
+            List<String> fields = parse(record.text);
+            String type = fields.get(0);
+            Outcome outcome;
+            if (type.equals(USER)) {
+                expect(fields, 6);
+                outcome = system.importUser(new User(fields.get(1), fields.get(2), fields.get(3),
+                        fields.get(4), Long.parseLong(fields.get(5))));
+            } else if (type.equals(ITEM)) {
+                expect(fields, 7);
+                outcome = system.importItem(new Item(fields.get(1), fields.get(2), fields.get(3),
+                        Double.parseDouble(fields.get(4)), fields.get(5), fields.get(6)));
+            } else if (type.equals(AUCTION)) {
+                expect(fields, 5);
+                outcome = system.importAuction(new Auction(fields.get(1), fields.get(2),
+                        LocalDateTime.parse(fields.get(3)), LocalDateTime.parse(fields.get(4))));
+            } else {
+                result.reject(record.line, "unknown record type '" + type + "'");
+                return;
+            }
+            if (outcome == Outcome.OK) {
+                result.imported(type);
+            } else {
+                result.reject(record.line, outcome.name());
+            }
+        } catch (RuntimeException e) {
+            // Malformed numbers, times and IDs
+            result.reject(record.line, e.getMessage());
+        }
+    }
+    
+    private static void expect(List<String> fields, int count) {
+        if (fields.size() != count) {
+            throw new IllegalArgumentException("expected " + count + " fields, found " + fields.size());
+        }
+    }
+    
+    private static String typeOf(String record) {
+        int comma = record.indexOf(',');
+        return comma < 0 ? record : record.substring(0, comma);
+    }
+    
+    // Splits a record into fields, undoing the quoting applied by writeRecord
+    static List<String> parse(String record) {
+        List<String> fields = new ArrayList<>(8);
+        StringBuilder field = new StringBuilder();
+        int i = 0;
+        while (true) {
+            field.setLength(0);
+            if (i < record.length() && record.charAt(i) == '"') {
+                i++;
+                while (true) {
+                    int quote = record.indexOf('"', i);
+                    if (quote < 0) {
+                        throw new IllegalArgumentException("unterminated quoted field");
+                    }
+                    field.append(record, i, quote);
+                    i = quote + 1;
+                    if (i < record.length() && record.charAt(i) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+                if (i < record.length() && record.charAt(i) != ',') {
+                    throw new IllegalArgumentException("text after closing quote");
+                }
+            } else {
+                int comma = record.indexOf(',', i);
+                int end = comma < 0 ? record.length() : comma;
+                field.append(record, i, end);
+                i = end;
+            }
+            fields.add(field.toString());
+            if (i >= record.length()) {
+                return fields;
+            }
+            i++; // past the comma
+        }
+    }
+    
+    static void writeRecord(Writer out, String... fields) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            writeField(out, fields[i] == null ? "" : fields[i]);
+        }
+        out.write('\n');
+    }
+    
+    private static void writeField(Writer out, String value) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        out.write(value.replace("\"", "\"\""));
+        out.write('"');
+    }
+}
+
+// AuctionSystem class to manage the entire system
+class AuctionSystem {
+    private static final int DETAILS_BID_COUNT = 20; // newest bids shown by viewAuctionDetails
+    
+    private LongMap<User> users;
+    private LongMap<Item> items;
+    private LongMap<Auction> auctions;
+    private Map<String, Auction> activeAuctions; // auction ID -> auction, open auctions only
+    private LongMap<UserActivity> activity; // user key -> auctions they sell and bid on
+    private Map<String, Long> usernameIndex; // normalized username -> user key
+    private Map<String, Long> emailIndex; // normalized email -> user key
+    private volatile User currentUser;
+    private final SessionStore sessions;
+    private final AuctionExpiryWheel expiryWheel;
+    private final AuctionBrowseIndex browseIndex;
+    private final AuctionSearchIndex searchIndex;
+    private final AuctionEventBus eventBus;
+    private final EscrowLedger ledger;
+    private ScheduledExecutorService expiryTicker;
+    private volatile ScheduledExecutorService archiver;
+    private volatile AuctionArchive archive; // null unless startArchiver was called
+    private long archiveDelayMillis;
+    private AuctionJournal journal; // null unless the system was created by recover
+    private final AuctionMetrics metrics;
+    private volatile boolean consoleOutput;
+    
+    public AuctionSystem() {
+        this(100_000, Duration.ofMinutes(30));
+    }
+    
+    public AuctionSystem(int maxSessions, Duration sessionIdleTimeout) {
+        this.users = new LongMap<>();
+        this.items = new LongMap<>();
+        this.auctions = new LongMap<>();
+        this.activeAuctions = new ConcurrentHashMap<>();
+        this.activity = new LongMap<>();
+        this.usernameIndex = new ConcurrentHashMap<>();
+        this.emailIndex = new ConcurrentHashMap<>();
+        this.currentUser = null;
+        this.sessions = new SessionStore(maxSessions, sessionIdleTimeout);
+        this.expiryWheel = new AuctionExpiryWheel(1000, System.currentTimeMillis(), this::expireAuction);
+        this.browseIndex = new AuctionBrowseIndex();
+        this.searchIndex = new AuctionSearchIndex();
+        this.eventBus = new AuctionEventBus();
+        this.ledger = new EscrowLedger(users);
+        this.metrics = new AuctionMetrics();
+        this.consoleOutput = true;
+    }
+    
+    // Closes auctions in the background as they end, releasing the losing bidders' escrow
+    // on time. Without it, an ended auction is still closed before any read or bid shows
+    // its state, but its funds stay held until then.
+    public synchronized void startExpiryScheduler() {
+        if (expiryTicker != null) {
+            return;
+        }
+        expiryTicker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "auction-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        expiryTicker.scheduleAtFixedRate(() -> expiryWheel.advance(System.currentTimeMillis()),
+                1, 1, TimeUnit.SECONDS);
+    }
+    
+    // Moves each auction, with its bids, out of the heap into a compressed archive file
+    // once it has been closed for the given delay. Lookups such as getAuctionById and
+    // viewAuctionDetails fall back to the archive, so archived auctions read as before,
+    // only more slowly; the heap then grows with open auctions instead of all history.
+    public synchronized void startArchiver(Path file, Duration delay) throws IOException {
+        if (archiver != null) {
+            return;
+        }
+        archive = AuctionArchive.open(file);
+        archiveDelayMillis = delay.toMillis();
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "auction-archiver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Interrupting a write would close the file, so shutdown drops pending moves instead
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        archiver = executor;
+        for (Auction auction : auctions.values()) {
+            if (!auction.isActive()) {
+                scheduleArchive(auction);
+            }
+        }
+    }
+    
+    public synchronized void shutdown() {
+        if (expiryTicker != null) {
+            expiryTicker.shutdownNow();
+            expiryTicker = null;
+        }
+        if (archiver != null) {
+            ScheduledExecutorService stopping = archiver;
+            archiver = null;
+            stopping.shutdown();
+            try {
+                stopping.awaitTermination(1, TimeUnit.MINUTES);
+                archive.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                System.err.println("Closing the auction archive failed: " + e.getMessage());
+            }
+        }
+        if (journal != null) {
+            journal.close();
+        }
+        eventBus.shutdown();
+    }
+    
+    // Counters and latency histograms for every call
+    public AuctionMetrics getMetrics() {
+        return metrics;
+    }
+    
+    // Messages such as "Auction not found!" go to stdout unless this is turned off
+    public void setConsoleOutput(boolean enabled) {
+        consoleOutput = enabled;
+    }
+    
+    private void print(String message) {
+        if (consoleOutput) {
+            System.out.println(message);
+        }
+    }
+    
+    // Counts the rejection, prints its message if console output is on and returns null
+    private <T> T reject(Operation operation, Outcome outcome, String message) {
+        metrics.count(operation, outcome);
+        print(message);
+        return null;
+    }
+    
+    // User Management
+    public User registerUser(String username, String email, String password) {
+        // The activity entry claims the user ID, as in importUser; a fresh ID can only be
+        // taken by an imported user that happened to carry it, so draw another
+        User newUser = new User(username, email, password);
+        while (activity.putIfAbsent(newUser.getUserKey(), new UserActivity()) != null) {
+            newUser = new User(username, email, password);
+        }
+        String usernameKey = normalize(username);
+        String emailKey = normalize(email);
+        
+        // Claim both unique keys before the user becomes visible; putIfAbsent makes
+        // concurrent registrations of the same username or email race safely
+        if (usernameIndex.putIfAbsent(usernameKey, newUser.getUserKey()) != null) {
+            activity.remove(newUser.getUserKey());
+            return reject(Operation.REGISTER_USER, Outcome.DUPLICATE_USER, "Username or email already exists!");
+        }
+        if (emailIndex.putIfAbsent(emailKey, newUser.getUserKey()) != null) {
+            usernameIndex.remove(usernameKey, newUser.getUserKey());
+            activity.remove(newUser.getUserKey());
+            return reject(Operation.REGISTER_USER, Outcome.DUPLICATE_USER, "Username or email already exists!");
+        }
+        
+        if (journal != null) {
+            journal.userRegistered(newUser);
+        }
+        users.put(newUser.getUserKey(), newUser);
+        metrics.count(Operation.REGISTER_USER, Outcome.OK);
+        return newUser;
+    }
+    
+    public User login(String email, String password) {
+        User user = authenticate(email, password);
+        if (user == null) {
+            return reject(Operation.LOGIN, Outcome.INVALID_CREDENTIALS, "Invalid credentials!");
+        }
+        currentUser = user;
+        metrics.count(Operation.LOGIN, Outcome.OK);
+        return user;
+    }
+    
+    public void logout() {
+        currentUser = null;
+        print("Logged out successfully!");
+    }
+    
+    // Session-based login: every caller gets its own session instead of sharing currentUser
+    public Session openSession(String email, String password) {
+        User user = authenticate(email, password);
+        if (user == null) {
+            return reject(Operation.LOGIN, Outcome.INVALID_CREDENTIALS, "Invalid credentials!");
+        }
+        Session session = sessions.create(user.getUserId());
+        if (session == null) {
+            return reject(Operation.LOGIN, Outcome.TOO_MANY_SESSIONS,
+                    "Too many active sessions, please try again later!");
+        }
+        metrics.count(Operation.LOGIN, Outcome.OK);
+        return session;
+    }
+    
+    public void logout(Session session) {
+        sessions.remove(session.getToken());
+        print("Logged out successfully!");
+    }
+    
+    // Look up a session by token, e.g. from a request header
+    public Session getSession(String token) {
+        return sessions.get(token);
+    }
+    
+    private User authenticate(String email, String password) {
+        long start = System.nanoTime();
+        try {
+            Long userKey = emailIndex.get(normalize(email));
+            if (userKey == null) {
+                return null;
+            }
+            // The user may still be mid-registration, in which case it is not in users yet
+            User user = users.get(userKey);
+            if (user == null || !user.verifyPassword(password)) {
+                return null;
+            }
+            return user;
+        } finally {
+            metrics.recordLatency(Operation.LOGIN, System.nanoTime() - start);
+        }
+    }
+    
+    // Usernames and emails are unique regardless of case
+    private static String normalize(String key) {
+        return key.trim().toLowerCase(Locale.ROOT);
+    }
+    
+    // Resolves the session to its user, or null if it has expired or been logged out. The
+    // user comes from the stored session, never from the object the caller passed in.
+    private User sessionUser(Session session, Operation operation) {
+        Session stored = session == null ? null : sessions.get(session.getToken());
+        if (stored == null) {
+            return reject(operation, Outcome.SESSION_EXPIRED, "Your session has expired, please log in again!");
+        }
+        return findUser(stored.getUserId());
+    }
+    
+    // Item Management
+    public Item createItem(String name, String description, double startingPrice, String category) {
+        User seller = currentUser;
+        if (seller == null) {
+            return reject(Operation.CREATE_ITEM, Outcome.NOT_LOGGED_IN, "You must be logged in to create an item!");
+        }
+        return createItem(seller, name, description, startingPrice, category);
+    }
+    
+    public Item createItem(Session session, String name, String description, double startingPrice, String category) {
+        User seller = sessionUser(session, Operation.CREATE_ITEM);
+        if (seller == null) {
+            return null;
+        }
+        return createItem(seller, name, description, startingPrice, category);
+    }
+    
+    private Item createItem(User seller, String name, String description, double startingPrice, String category) {
+        // Claimed before it is journaled, as in importItem
+        Item newItem = new Item(name, description, startingPrice, seller.getUserId(), category);
+        while (items.putIfAbsent(newItem.getItemKey(), newItem) != null) {
+            newItem = new Item(name, description, startingPrice, seller.getUserId(), category);
+        }
+        if (journal != null) {
+            journal.itemCreated(newItem);
+        }
+        metrics.count(Operation.CREATE_ITEM, Outcome.OK);
+        return newItem;
+    }
+    
+    // Auction Management
+    public Auction createAuction(String itemId, int durationInHours) {
+        User seller = currentUser;
+        if (seller == null) {
+            return reject(Operation.CREATE_AUCTION, Outcome.NOT_LOGGED_IN, "You must be logged in to create an auction!");
+        }
+        return createAuction(seller, itemId, durationInHours);
+    }
+    
+    public Auction createAuction(Session session, String itemId, int durationInHours) {
+        User seller = sessionUser(session, Operation.CREATE_AUCTION);
+        if (seller == null) {
+            return null;
+        }
+        return createAuction(seller, itemId, durationInHours);
+    }
+    
+    private Auction createAuction(User seller, String itemId, int durationInHours) {
+        Item item = findItem(itemId);
+        if (item == null) {
+            return reject(Operation.CREATE_AUCTION, Outcome.ITEM_NOT_FOUND, "Item not found!");
+        }
+        
+        if (!item.getSellerId().equals(seller.getUserId())) {
+            return reject(Operation.CREATE_AUCTION, Outcome.NOT_OWNER, "You can only auction your own items!");
+        }
+        
+        LocalDateTime startTime = LocalDateTime.now();
+        LocalDateTime endTime = startTime.plusHours(durationInHours);
+        
+        // A fresh ID can only be taken by an imported auction that happened to carry it
+        Auction newAuction = new Auction(itemId, startTime, endTime);
+        while (!claimAuction(newAuction)) {
+            newAuction = new Auction(itemId, startTime, endTime);
+        }
+        // Journal before publishing, so no bid on this auction can reach the journal first
+        if (journal != null) {
+            journal.auctionCreated(newAuction, seller.getUserId());
+        }
+        addAuction(newAuction, seller.getUserId());
+        metrics.count(Operation.CREATE_AUCTION, Outcome.OK);
         
-        if (LocalDateTime.now().isAfter(auction.getEndTime())) {
-            auction.setActive(false);
-            System.out.println("This auction has ended!");
+        return newAuction;
+    }
+    
+    // Bidding
+    public Bid placeBid(String auctionId, double amount) {
+        User bidder = currentUser;
+        if (bidder == null) {
+            return reject(Operation.PLACE_BID, Outcome.NOT_LOGGED_IN, "You must be logged in to place a bid!");
+        }
+        return placeBid(bidder, auctionId, amount).getBid();
+    }
+    
+    // Concurrent bidding: the bidder comes from a session or is passed explicitly instead
+    // of going through currentUser, so any number of threads can bid on the same auction at once
+    public Bid placeBid(Session session, String auctionId, double amount) {
+        User bidder = sessionUser(session, Operation.PLACE_BID);
+        if (bidder == null) {
+            return null;
+        }
+        return placeBid(bidder, auctionId, amount).getBid();
+    }
+    
+    // Bids as the given user without a session check; only for callers inside the system
+    // that have already established who the bidder is (load generator, benchmarks)
+    Bid placeBidAs(String bidderId, String auctionId, double amount) {
+        return tryPlaceBid(bidderId, auctionId, amount).getBid();
+    }
+    
+    // Like placeBidAs, but reports why a bid was rejected instead of returning null
+    BidResult tryPlaceBid(String bidderId, String auctionId, double amount) {
+        User bidder = findUser(bidderId);
+        if (bidder == null) {
+            return rejectBid(new BidRequest(bidderId, auctionId, amount), Outcome.USER_NOT_FOUND, "User not found!");
+        }
+        return placeBid(bidder, auctionId, amount);
+    }
+    
+    // Batched bidding: requests are grouped by auction and each group is validated in
+    // one pass against a single clock reading. Within a group only bids that raise the
+    // running highest bid are kept, and they are published with one compare-and-set.
+    // Results come back in request order. Each request names its bidder and is not
+    // checked against a session, so this is only for callers inside the system.
+    List<BidResult> placeBids(Collection<BidRequest> requests) {
+        long start = System.nanoTime();
+        List<BidRequest> ordered = new ArrayList<>(requests);
+        BidResult[] results = new BidResult[ordered.size()];
+        Map<String, List<Integer>> byAuction = new LinkedHashMap<>();
+        for (int i = 0; i < ordered.size(); i++) {
+            byAuction.computeIfAbsent(ordered.get(i).getAuctionId(), id -> new ArrayList<>()).add(i);
+        }
+        
+        long now = System.currentTimeMillis();
+        Map<String, User> bidders = new HashMap<>();
+        for (Map.Entry<String, List<Integer>> group : byAuction.entrySet()) {
+            placeBidGroup(group.getKey(), group.getValue(), ordered, results, bidders, now);
+        }
+        for (BidResult result : results) {
+            metrics.count(Operation.PLACE_BID, result.getStatus());
+        }
+        metrics.recordLatency(Operation.PLACE_BIDS, System.nanoTime() - start);
+        return Arrays.asList(results);
+    }
+    
+    private void placeBidGroup(String auctionId, List<Integer> indexes, List<BidRequest> requests,
+                               BidResult[] results, Map<String, User> bidders, long now) {
+        Auction auction = findAuction(auctionId);
+        Outcome groupStatus = null;
+        if (auction == null) {
+            groupStatus = Outcome.AUCTION_NOT_FOUND;
+        } else if (!auction.isActive()) {
+            groupStatus = Outcome.AUCTION_CLOSED;
+        } else if (now > auction.getEndEpochMillis()) {
+            expireAuction(auction);
+            groupStatus = Outcome.AUCTION_ENDED;
+        }
+        if (groupStatus != null) {
+            for (int index : indexes) {
+                results[index] = new BidResult(requests.get(index), groupStatus, null);
+            }
+            return;
+        }
+        
+        String sellerId = items.get(auction.getItemKey()).getSellerId();
+        long running = auction.getBidState().getAmountCents();
+        List<Bid> candidates = new ArrayList<>();
+        List<Integer> candidateIndexes = new ArrayList<>();
+        Map<String, Long> reservedByBidder = new HashMap<>(); // for candidates each later one outbids
+        for (int index : indexes) {
+            BidRequest request = requests.get(index);
+            User bidder = bidders.computeIfAbsent(request.getBidderId(), this::findUser);
+            Outcome status;
+            if (bidder == null) {
+                status = Outcome.USER_NOT_FOUND;
+            } else if (sellerId.equals(bidder.getUserId())) {
+                status = Outcome.OWN_AUCTION;
+            } else if (Math.round(request.getAmount() * 100) <= running) {
+                status = Outcome.BID_TOO_LOW;
+            } else if (!ledger.reserveRaise(bidder, auction, Math.round(request.getAmount() * 100),
+                    reservedByBidder.getOrDefault(bidder.getUserId(), 0L))) {
+                status = Outcome.INSUFFICIENT_BALANCE;
+            } else {
+                running = Math.round(request.getAmount() * 100);
+                reservedByBidder.merge(bidder.getUserId(), running, Long::sum);
+                candidates.add(new Bid(auctionId, 0, bidder.getUserId(), running, now));
+                candidateIndexes.add(index);
+                continue;
+            }
+            results[index] = new BidResult(request, status, null);
+        }
+        if (candidates.isEmpty()) {
+            return;
+        }
+        
+        // Bids outrun by another thread since the pass above are dropped by addBids
+        BidState base = auction.addBids(candidates);
+        int sequence = base == null ? 0 : base.getBidCount();
+        for (int i = 0; i < candidates.size(); i++) {
+            Bid candidate = candidates.get(i);
+            BidRequest request = requests.get(candidateIndexes.get(i));
+            if (base == null) {
+                ledger.release(bidders.get(candidate.getBidderId()), candidate.getAmountCents());
+                results[candidateIndexes.get(i)] = new BidResult(request, Outcome.AUCTION_CLOSED, null);
+            } else if (candidate.getAmountCents() <= base.getAmountCents()) {
+                ledger.release(bidders.get(candidate.getBidderId()), candidate.getAmountCents());
+                results[candidateIndexes.get(i)] = new BidResult(request, Outcome.BID_TOO_LOW, null);
+            } else {
+                sequence++;
+                Bid bid = new Bid(auctionId, sequence, candidate.getBidderId(),
+                        candidate.getAmountCents(), candidate.getEpochMillis());
+                ledger.holdWinning(auction, bid.getBidderId(), sequence, bid.getAmountCents());
+                if (journal != null) {
+                    journal.bidPlaced(bid);
+                }
+                activity.get(IdGenerator.parse(bid.getBidderId()))
+                        .bidPlaced(auction, bid.getAmountCents(), bid.getEpochMillis());
+                eventBus.bidAccepted(auction, bid);
+                results[candidateIndexes.get(i)] = new BidResult(request, Outcome.OK, bid);
+            }
+        }
+        browseIndex.priceChanged(auction);
+        proxiesRespond(auction);
+    }
+    
+    private BidResult placeBid(User bidder, String auctionId, double amount) {
+        long start = System.nanoTime();
+        try {
+            return placeBid(bidder, new BidRequest(bidder.getUserId(), auctionId, amount));
+        } finally {
+            metrics.recordLatency(Operation.PLACE_BID, System.nanoTime() - start);
+        }
+    }
+    
+    private BidResult placeBid(User bidder, BidRequest request) {
+        String auctionId = request.getAuctionId();
+        double amount = request.getAmount();
+        Auction auction = findAuction(auctionId);
+        if (auction == null) {
+            return rejectBid(request, Outcome.AUCTION_NOT_FOUND, "Auction not found!");
+        }
+        
+        Item item = items.get(auction.getItemKey());
+        if (item.getSellerId().equals(bidder.getUserId())) {
+            return rejectBid(request, Outcome.OWN_AUCTION, "You cannot bid on your own auction!");
+        }
+        
+        if (!auction.isActive()) {
+            return rejectBid(request, Outcome.AUCTION_CLOSED, "This auction is no longer active!");
+        }
+        
+        long now = System.currentTimeMillis();
+        if (now > auction.getEndEpochMillis()) {
+            // The expiry wheel has not reached this auction yet
+            expireAuction(auction);
+            return rejectBid(request, Outcome.AUCTION_ENDED, "This auction has ended!");
+        }
+        
+        if (amount <= auction.getCurrentHighestBid()) {
+            return rejectBid(request, Outcome.BID_TOO_LOW, "Your bid must be higher than the current highest bid!");
+        }
+        
+        // Reserve the funds before publishing the bid, so the same money can never be
+        // winning two auctions at once; a leader raising their own bid needs only the rise
+        long amountCents = Math.round(amount * 100);
+        if (!ledger.reserveRaise(bidder, auction, amountCents)) {
+            return rejectBid(request, Outcome.INSUFFICIENT_BALANCE, "You don't have enough balance for this bid!");
+        }
+        
+        // The check above is only a fast path; another thread may have outbid us since
+        Bid newBid = publishBid(bidder, auction, amountCents, now);
+        if (newBid == null) {
+            return auction.isActive()
+                    ? rejectBid(request, Outcome.BID_TOO_LOW, "Your bid must be higher than the current highest bid!")
+                    : rejectBid(request, Outcome.AUCTION_CLOSED, "This auction is no longer active!");
+        }
+        proxiesRespond(auction);
+        
+        metrics.count(Operation.PLACE_BID, Outcome.OK);
+        return new BidResult(request, Outcome.OK, newBid);
+    }
+    
+    // Appends a bid whose funds are already reserved. Returns null, releasing the funds,
+    // if the auction closed or was outbid first.
+    private Bid publishBid(User bidder, Auction auction, long amountCents, long now) {
+        BidState accepted = auction.addBid(bidder.getUserId(), amountCents, now);
+        if (accepted == null) {
+            ledger.release(bidder, amountCents);
             return null;
         }
-        
-        if (amount <= auction.getCurrentHighestBid()) {
-            System.out.println("Your bid must be higher than the current highest bid!");
-            return null;
+        ledger.holdWinning(auction, bidder.getUserId(), accepted.getBidCount(), amountCents);
+        Bid newBid = new Bid(auction.getAuctionId(), accepted.getBidCount(), bidder.getUserId(), amountCents, now);
+        if (journal != null) {
+            journal.bidPlaced(newBid);
+        }
+        
+        activity.get(bidder.getUserKey()).bidPlaced(auction, amountCents, now);
+        browseIndex.priceChanged(auction);
+        eventBus.bidAccepted(auction, newBid);
+        return newBid;
+    }
+    
+    // Proxy bidding: the bidder names the most they will pay, and the system bids for
+    // them only as far as the competition requires. The result carries the bidder's
+    // leading bid, or no bid if a higher maximum outbid them straight away.
+    public BidResult placeProxyBid(String auctionId, double maxAmount) {
+        User bidder = currentUser;
+        if (bidder == null) {
+            return rejectProxyBid(new BidRequest(null, auctionId, maxAmount), Outcome.NOT_LOGGED_IN,
+                    "You must be logged in to place a bid!");
+        }
+        return placeProxyBid(bidder, auctionId, maxAmount);
+    }
+    
+    public BidResult placeProxyBid(Session session, String auctionId, double maxAmount) {
+        User bidder = sessionUser(session, Operation.PLACE_PROXY_BID);
+        if (bidder == null) {
+            return new BidResult(new BidRequest(null, auctionId, maxAmount), Outcome.SESSION_EXPIRED, null);
+        }
+        return placeProxyBid(bidder, auctionId, maxAmount);
+    }
+    
+    private BidResult placeProxyBid(User bidder, String auctionId, double maxAmount) {
+        long start = System.nanoTime();
+        try {
+            return placeProxyBid(bidder, new BidRequest(bidder.getUserId(), auctionId, maxAmount));
+        } finally {
+            metrics.recordLatency(Operation.PLACE_PROXY_BID, System.nanoTime() - start);
+        }
+    }
+    
+    private BidResult placeProxyBid(User bidder, BidRequest request) {
+        Auction auction = findAuction(request.getAuctionId());
+        if (auction == null) {
+            return rejectProxyBid(request, Outcome.AUCTION_NOT_FOUND, "Auction not found!");
+        }
+        
+        Item item = items.get(auction.getItemKey());
+        if (item.getSellerId().equals(bidder.getUserId())) {
+            return rejectProxyBid(request, Outcome.OWN_AUCTION, "You cannot bid on your own auction!");
+        }
+        
+        if (!auction.isActive()) {
+            return rejectProxyBid(request, Outcome.AUCTION_CLOSED, "This auction is no longer active!");
+        }
+        
+        if (System.currentTimeMillis() > auction.getEndEpochMillis()) {
+            expireAuction(auction);
+            return rejectProxyBid(request, Outcome.AUCTION_ENDED, "This auction has ended!");
+        }
+        
+        long maxCents = Math.round(request.getAmount() * 100);
+        if (maxCents <= auction.getBidState().getAmountCents()) {
+            return rejectProxyBid(request, Outcome.BID_TOO_LOW,
+                    "Your maximum bid must be higher than the current highest bid!");
+        }
+        
+        // Funds are reserved bid by bid; a maximum the bidder could never cover is refused
+        // up front, counting what they already hold as this auction's leader
+        long ownHold = ledger.heldOn(auction, bidder.getUserId());
+        if (maxCents > bidder.getBalanceCents() - bidder.getHeldCents() + ownHold) {
+            return rejectProxyBid(request, Outcome.INSUFFICIENT_BALANCE,
+                    "You don't have enough balance for this maximum bid!");
+        }
+        
+        ProxyBidBook book = auction.openProxyBook();
+        synchronized (book) {
+            ProxyBid previous = book.get(bidder.getUserId());
+            if (previous != null && maxCents <= previous.getMaxCents()) {
+                return rejectProxyBid(request, Outcome.BID_TOO_LOW, "You can only raise your maximum bid!");
+            }
+            if (journal != null) {
+                journal.proxyBidPlaced(auction.getAuctionId(), bidder.getUserId(), maxCents);
+            }
+            book.put(bidder.getUserId(), maxCents);
+            resolveProxies(auction, book);
+        }
+        
+        metrics.count(Operation.PLACE_PROXY_BID, Outcome.OK);
+        BidState state = auction.getBidState();
+        Bid leading = bidder.getUserId().equals(state.getBidderId()) ? auction.getBid(state.getBidCount()) : null;
+        return new BidResult(request, Outcome.OK, leading);
+    }
+    
+    private BidResult rejectProxyBid(BidRequest request, Outcome outcome, String message) {
+        metrics.count(Operation.PLACE_PROXY_BID, outcome);
+        print(message);
+        return new BidResult(request, outcome, null);
+    }
+    
+    // Lets the auction's proxies answer a bid placed directly
+    private void proxiesRespond(Auction auction) {
+        ProxyBidBook book = auction.getProxyBook();
+        if (book != null) {
+            synchronized (book) {
+                resolveProxies(auction, book);
+            }
+        }
+    }
+    
+    // Brings the price up to what the proxies imply. The highest maximum leads at one
+    // increment over its strongest rival, which is the runner-up's maximum or a direct
+    // bidder's price, but never above its own maximum or below the starting price. The
+    // runner-up is first shown bidding its full maximum. Only these visible bids are
+    // appended, so any number of proxies settle in at most two bids; each step raises
+    // the price or drops a proxy. Caller holds the book's monitor.
+    private void resolveProxies(Auction auction, ProxyBidBook book) {
+        long startingCents = Math.round(items.get(auction.getItemKey()).getStartingPrice() * 100);
+        while (true) {
+            long now = System.currentTimeMillis();
+            BidState state = auction.getBidState();
+            if (state.isClosed() || now > auction.getEndEpochMillis()) {
+                return;
+            }
+            long price = state.getAmountCents();
+            String leaderId = state.getBidderId();
+            book.discardBeaten(price);
+            ProxyBid top = book.first();
+            if (top == null) {
+                return;
+            }
+            ProxyBid second = book.second();
+            boolean leading = top.getBidderId().equals(leaderId);
+            long rival = second == null ? 0 : second.getMaxCents();
+            if (!leading) {
+                rival = Math.max(rival, price);
+            }
+            long target = Math.min(top.getMaxCents(), Math.max(rival + ProxyBidBook.increment(rival), startingCents));
+            
+            if (second != null && !second.getBidderId().equals(leaderId)
+                    && second.getMaxCents() > price && second.getMaxCents() < target) {
+                bidForProxy(auction, book, second, second.getMaxCents(), now);
+            } else if (target > price) {
+                bidForProxy(auction, book, top, target, now);
+            } else {
+                return;
+            }
+        }
+    }
+    
+    // A proxy whose bidder can no longer cover the bid is dropped; a bid that loses a
+    // race with a direct bid is simply retried by the caller's next step. A proxy
+    // raising its own leading bid only needs the difference free.
+    private void bidForProxy(Auction auction, ProxyBidBook book, ProxyBid proxy, long amountCents, long now) {
+        User bidder = findUser(proxy.getBidderId());
+        if (!ledger.reserveRaise(bidder, auction, amountCents)) {
+            book.remove(proxy);
+            return;
+        }
+        publishBid(bidder, auction, amountCents, now);
+    }
+    
+    private BidResult rejectBid(BidRequest request, Outcome outcome, String message) {
+        metrics.count(Operation.PLACE_BID, outcome);
+        print(message);
+        return new BidResult(request, outcome, null);
+    }
+    
+    // Listing Auctions
+    public List<Auction> listActiveAuctions() {
+        long start = System.nanoTime();
+        expiryWheel.advance(System.currentTimeMillis());
+        
+        // Auctions ending within the current tick may not be closed yet
+        List<Auction> result = new ArrayList<>(activeAuctions.size());
+        LocalDateTime now = LocalDateTime.now();
+        for (Auction auction : activeAuctions.values()) {
+            if (now.isBefore(auction.getEndTime())) {
+                result.add(auction);
+            }
+        }
+        
+        metrics.count(Operation.LIST_ACTIVE_AUCTIONS, Outcome.OK);
+        metrics.recordLatency(Operation.LIST_ACTIVE_AUCTIONS, System.nanoTime() - start);
+        return result;
+    }
+    
+    // Browsing: one page of open auctions, optionally restricted to a category (null for
+    // all) and a current-price range. Pass the previous page's next cursor to continue.
+    public AuctionPage browseAuctions(String category, double minPrice, double maxPrice,
+                                      AuctionSort sort, String cursor, int pageSize) {
+        long start = System.nanoTime();
+        try {
+            if (pageSize <= 0) {
+                return reject(Operation.BROWSE_AUCTIONS, Outcome.INVALID_REQUEST, "Page size must be positive!");
+            }
+            if (Double.isNaN(minPrice) || Double.isNaN(maxPrice) || minPrice > maxPrice) {
+                return reject(Operation.BROWSE_AUCTIONS, Outcome.INVALID_REQUEST, "Invalid price range!");
+            }
+            if (cursor != null && !AuctionBrowseIndex.isValidCursor(cursor)) {
+                return reject(Operation.BROWSE_AUCTIONS, Outcome.INVALID_REQUEST, "Invalid page cursor!");
+            }
+            expiryWheel.advance(System.currentTimeMillis());
+            AuctionPage page = browseIndex.page(category, minPrice, maxPrice, sort, cursor, pageSize,
+                    System.currentTimeMillis());
+            metrics.count(Operation.BROWSE_AUCTIONS, Outcome.OK);
+            return page;
+        } finally {
+            metrics.recordLatency(Operation.BROWSE_AUCTIONS, System.nanoTime() - start);
+        }
+    }
+    
+    // Keyword search over item names, descriptions and categories. Every word must match,
+    // either exactly or as the start of a longer word; name matches rank highest.
+    public List<Auction> searchAuctions(String query, int limit) {
+        long start = System.nanoTime();
+        expiryWheel.advance(System.currentTimeMillis());
+        List<Auction> result = searchIndex.search(query, limit, System.currentTimeMillis());
+        metrics.count(Operation.SEARCH_AUCTIONS, Outcome.OK);
+        metrics.recordLatency(Operation.SEARCH_AUCTIONS, System.nanoTime() - start);
+        return result;
+    }
+    
+    // Pushes the auction's events to the listener instead of having it poll
+    // viewAuctionDetails. The listener runs on a shared event thread, so it should not
+    // block; cancel the returned subscription to stop watching.
+    public AuctionSubscription watchAuction(String auctionId, Consumer<AuctionEvent> listener) {
+        Auction auction = findCurrentAuction(auctionId);
+        if (auction == null) {
+            return reject(Operation.WATCH_AUCTION, Outcome.AUCTION_NOT_FOUND, "Auction not found!");
+        }
+        metrics.count(Operation.WATCH_AUCTION, Outcome.OK);
+        return eventBus.subscribe(auction, listener);
+    }
+    
+    // View auction details with item information. Prints the newest bids only; use
+    // getBidHistory to page through older ones.
+    public void viewAuctionDetails(String auctionId) {
+        AuctionDetails details = getAuctionDetails(auctionId);
+        if (details != null) {
+            System.out.println(details.render());
+        }
+    }
+    
+    // Structured auction details with the newest bids. Built in O(page size) and cached
+    // on the auction; a bid or close replaces its BidState, which retires the cache.
+    public AuctionDetails getAuctionDetails(String auctionId) {
+        long start = System.nanoTime();
+        try {
+            Auction auction = findCurrentAuction(auctionId);
+            if (auction == null) {
+                return reject(Operation.VIEW_AUCTION, Outcome.AUCTION_NOT_FOUND, "Auction not found!");
+            }
+            BidState state = auction.getBidState();
+            AuctionDetails details = auction.getCachedDetails();
+            if (details == null || details.getState() != state) {
+                Item item = items.get(auction.getItemKey());
+                User seller = users.get(item.getSellerKey());
+                String highestBidder = state.getBidderId() == null ? null : findUser(state.getBidderId()).getUsername();
+                details = new AuctionDetails(state, auction, item, seller.getUsername(), highestBidder,
+                        bidHistory(auction, state.getBidCount(), DETAILS_BID_COUNT));
+                auction.setCachedDetails(details);
+            }
+            metrics.count(Operation.VIEW_AUCTION, Outcome.OK);
+            return details;
+        } finally {
+            metrics.recordLatency(Operation.VIEW_AUCTION, System.nanoTime() - start);
+        }
+    }
+    
+    // One page of bids, newest first. Pass null for the newest page, then each page's
+    // next cursor for the one before it.
+    public BidHistoryPage getBidHistory(String auctionId, String cursor, int pageSize) {
+        long start = System.nanoTime();
+        try {
+            if (pageSize <= 0) {
+                return reject(Operation.VIEW_AUCTION, Outcome.INVALID_REQUEST, "Page size must be positive!");
+            }
+            int cursorSequence = cursor == null ? 0 : BidHistoryPage.parseCursor(cursor);
+            if (cursor != null && cursorSequence == 0) {
+                return reject(Operation.VIEW_AUCTION, Outcome.INVALID_REQUEST, "Invalid page cursor!");
+            }
+            Auction auction = findCurrentAuction(auctionId);
+            if (auction == null) {
+                return reject(Operation.VIEW_AUCTION, Outcome.AUCTION_NOT_FOUND, "Auction not found!");
+            }
+            int newest = auction.getBidState().getBidCount();
+            if (cursor != null) {
+                newest = Math.min(newest, cursorSequence - 1);
+            }
+            BidHistoryPage page = bidHistory(auction, newest, pageSize);
+            metrics.count(Operation.VIEW_AUCTION, Outcome.OK);
+            return page;
+        } finally {
+            metrics.recordLatency(Operation.VIEW_AUCTION, System.nanoTime() - start);
+        }
+    }
+    
+    // Bids newest down to newest - pageSize + 1; the cursor names the oldest bid returned
+    private BidHistoryPage bidHistory(Auction auction, int newest, int pageSize) {
+        int oldest = Math.max(1, newest - pageSize + 1);
+        List<BidHistoryEntry> bids = new ArrayList<>(Math.max(0, newest - oldest + 1));
+        BidLog.Cursor bid = new BidLog.Cursor();
+        for (int sequence = newest; sequence >= oldest; sequence--) {
+            auction.getBidLog().read(sequence - 1, bid);
+            User bidder = users.get(bid.getBidderKey());
+            bids.add(new BidHistoryEntry(sequence, bidder.getUserId(), bidder.getUsername(),
+                    bid.getAmountCents(), bid.getEpochMillis()));
+        }
+        return new BidHistoryPage(bids, oldest > 1 ? String.valueOf(oldest) : null);
+    }
+    
+    // Close Auction
+    public void closeAuction(String auctionId) {
+        User seller = currentUser;
+        if (seller == null) {
+            reject(Operation.CLOSE_AUCTION, Outcome.NOT_LOGGED_IN, "You must be logged in to close an auction!");
+            return;
+        }
+        closeAuction(seller, auctionId);
+    }
+    
+    public void closeAuction(Session session, String auctionId) {
+        User seller = sessionUser(session, Operation.CLOSE_AUCTION);
+        if (seller == null) {
+            return;
+        }
+        closeAuction(seller, auctionId);
+    }
+    
+    void closeAuctionAs(String sellerId, String auctionId) {
+        User seller = findUser(sellerId);
+        if (seller == null) {
+            reject(Operation.CLOSE_AUCTION, Outcome.USER_NOT_FOUND, "User not found!");
+            return;
+        }
+        closeAuction(seller, auctionId);
+    }
+    
+    private void closeAuction(User closer, String auctionId) {
+        long start = System.nanoTime();
+        try {
+            Auction auction = findAuction(auctionId);
+            if (auction == null) {
+                reject(Operation.CLOSE_AUCTION, Outcome.AUCTION_NOT_FOUND, "Auction not found!");
+                return;
+            }
+            
+            Item item = items.get(auction.getItemKey());
+            if (!item.getSellerId().equals(closer.getUserId())) {
+                reject(Operation.CLOSE_AUCTION, Outcome.NOT_OWNER, "You can only close your own auctions!");
+                return;
+            }
+            
+            if (settleAuction(auction)) {
+                metrics.count(Operation.CLOSE_AUCTION, Outcome.OK);
+            } else {
+                reject(Operation.CLOSE_AUCTION, Outcome.AUCTION_CLOSED, "This auction is no longer active!");
+            }
+        } finally {
+            metrics.recordLatency(Operation.CLOSE_AUCTION, System.nanoTime() - start);
+        }
+    }
+    
+    // Called by the expiry wheel once the auction's end time has passed
+    private void expireAuction(Auction auction) {
+        settleAuction(auction);
+    }
+    
+    // Closes the auction and transfers the winning bid from buyer to seller. Runs at
+    // most once per auction, whether the seller closed it or it expired.
+    private boolean settleAuction(Auction auction) {
+        if (!auction.close()) {
+            return false;
+        }
+        if (journal != null) {
+            journal.auctionClosed(auction.getAuctionId(), auction.getBidState().getBidCount());
+        }
+        return completeSettlement(auction, true);
+    }
+    
+    private boolean completeSettlement(Auction auction, boolean announce) {
+        activeAuctions.remove(auction.getAuctionId());
+        expiryWheel.cancel(auction);
+        browseIndex.remove(auction);
+        searchIndex.remove(auction);
+        eventBus.auctionClosed(auction);
+        if (announce) {
+            print("Auction closed successfully!");
+        }
+        
+        Item item = items.get(auction.getItemKey());
+        User seller = users.get(item.getSellerKey());
+        BidState last = auction.getBidState();
+        SettlementResult settlement = ledger.settle(auction, seller);
+        if (settlement != SettlementResult.NO_BIDS) {
+            User buyer = findUser(last.getBidderId());
+            
+            // Transfer funds
+            if (settlement == SettlementResult.TRANSFERRED) {
+                if (announce) {
+                    print("Funds transferred from " + buyer.getUsername() + 
+                          " to " + seller.getUsername() + 
+                          " for $" + auction.getCurrentHighestBid());
+                }
+            } else if (announce) {
+                print("Transaction failed! Buyer doesn't have enough funds.");
+            }
+        }
+        scheduleArchive(auction);
+        return true;
+    }
+    
+    private void scheduleArchive(Auction auction) {
+        ScheduledExecutorService executor = archiver;
+        if (executor == null) {
+            return;
+        }
+        try {
+            executor.schedule(() -> moveToArchive(auction), archiveDelayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down; the auction simply stays on the heap
+        }
+    }
+    
+    // Moves a closed auction from the heap to the archive. It is readable from the
+    // archive before it leaves the map, so a lookup always finds it in one or the
+    // other. Runs on the archiver thread only, long enough after the close that the
+    // bids and settlement racing it have finished with the auction.
+    private void moveToArchive(Auction auction) {
+        if (auctions.get(auction.getAuctionKey()) != auction) {
+            return;
+        }
+        try {
+            archive.append(auction);
+        } catch (IOException e) {
+            System.err.println("Archiving auction " + auction.getAuctionId() + " failed: " + e.getMessage());
+            return;
         }
         
-        if (amount > currentUser.getBalance()) {
-            System.out.println("You don't have enough balance for this bid!");
+        BidState last = auction.getBidState();
+        long winnerKey = last.getBidderId() == null ? 0 : IdGenerator.parse(last.getBidderId());
+        Set<Long> bidders = new HashSet<>();
+        BidLog.Cursor cursor = new BidLog.Cursor();
+        for (int i = 0; i < last.getBidCount(); i++) {
+            auction.getBidLog().read(i, cursor);
+            if (bidders.add(cursor.getBidderKey())) {
+                activity.get(cursor.getBidderKey()).auctionArchived(auction.getAuctionId(),
+                        last.getAmountCents(), cursor.getBidderKey() == winnerKey);
+            }
+        }
+        auctions.remove(auction.getAuctionKey());
+    }
+    
+    // Get current user
+    public User getCurrentUser() {
+        return currentUser;
+    }
+    
+    // Get user by ID
+    public User getUserById(String userId) {
+        expiryWheel.advance(System.currentTimeMillis()); // settles ended auctions' escrow
+        return findUser(userId);
+    }
+    
+    // Get item by ID
+    public Item getItemById(String itemId) {
+        return findItem(itemId);
+    }
+    
+    // Get auction by ID
+    public Auction getAuctionById(String auctionId) {
+        return findCurrentAuction(auctionId);
+    }
+    
+    // "My bids": every auction the user has bid on with their best bid and whether they
+    // are winning, open auctions ending soonest first
+    public List<BidActivity> getMyBids() {
+        User user = currentUser;
+        if (user == null) {
+            return reject(Operation.VIEW_ACTIVITY, Outcome.NOT_LOGGED_IN, "You must be logged in to view your bids!");
+        }
+        return getBidActivity(user.getUserId());
+    }
+    
+    public List<BidActivity> getMyBids(Session session) {
+        User user = sessionUser(session, Operation.VIEW_ACTIVITY);
+        if (user == null) {
             return null;
         }
+        return getBidActivity(user.getUserId());
+    }
+    
+    public List<BidActivity> getBidActivity(String userId) {
+        long start = System.nanoTime();
+        try {
+            expiryWheel.advance(System.currentTimeMillis());
+            UserActivity user = activity.get(IdGenerator.parse(userId));
+            if (user == null) {
+                return reject(Operation.VIEW_ACTIVITY, Outcome.USER_NOT_FOUND, "User not found!");
+            }
+            metrics.count(Operation.VIEW_ACTIVITY, Outcome.OK);
+            return user.getBidding(userId);
+        } finally {
+            metrics.recordLatency(Operation.VIEW_ACTIVITY, System.nanoTime() - start);
+        }
+    }
+    
+    // Auctions the user has created, oldest first; archived ones are read back from the archive
+    public List<Auction> getAuctionsBySeller(String userId) {
+        expiryWheel.advance(System.currentTimeMillis());
+        UserActivity user = activity.get(IdGenerator.parse(userId));
+        if (user == null) {
+            return reject(Operation.VIEW_ACTIVITY, Outcome.USER_NOT_FOUND, "User not found!");
+        }
+        List<String> auctionIds = user.getSelling();
+        List<Auction> selling = new ArrayList<>(auctionIds.size());
+        for (String auctionId : auctionIds) {
+            selling.add(findAuction(auctionId));
+        }
+        return selling;
+    }
+    
+    // State changes used by journal replay. They assume the change has already been
+    // validated and do not write to the journal themselves, but never replace an entity
+    // already held under the same ID.
+    void addUser(User user) {
+        if (users.putIfAbsent(user.getUserKey(), user) != null) {
+            throw new IllegalStateException("Duplicate user ID " + user.getUserId());
+        }
+        usernameIndex.put(normalize(user.getUsername()), user.getUserKey());
+        emailIndex.put(normalize(user.getEmail()), user.getUserKey());
+        activity.put(user.getUserKey(), new UserActivity());
+    }
+    
+    void addItem(Item item) {
+        if (items.putIfAbsent(item.getItemKey(), item) != null) {
+            throw new IllegalStateException("Duplicate item ID " + item.getItemId());
+        }
+    }
+    
+    // Also publishes auctions already claimed through claimAuction
+    void addAuction(Auction auction, String sellerId) {
+        Item item = items.get(auction.getItemKey());
+        Auction existing = auctions.putIfAbsent(auction.getAuctionKey(), auction);
+        if (existing != null && existing != auction) {
+            throw new IllegalStateException("Duplicate auction ID " + auction.getAuctionId());
+        }
+        activeAuctions.put(auction.getAuctionId(), auction);
+        browseIndex.add(auction, item);
+        searchIndex.add(auction, item);
+        expiryWheel.schedule(auction);
         
-        Bid newBid = new Bid(auctionId, currentUser.getUserId(), amount);
-        auction.addBid(newBid);
+        activity.get(IdGenerator.parse(sellerId)).auctionCreated(auction);
+    }
+    
+    BidState addBid(Bid bid) {
+        Auction auction = findAuction(bid.getAuctionId());
+        User bidder = findUser(bid.getBidderId());
+        ledger.forceReserve(bidder, bid.getAmountCents());
+        BidState accepted = auction.addBid(bid.getBidderId(), bid.getAmountCents(), bid.getEpochMillis());
+        if (accepted == null) {
+            ledger.release(bidder, bid.getAmountCents());
+        } else {
+            ledger.holdWinning(auction, bid.getBidderId(), accepted.getBidCount(), bid.getAmountCents());
+            activity.get(bidder.getUserKey()).bidPlaced(auction, bid.getAmountCents(), bid.getEpochMillis());
+            browseIndex.priceChanged(auction);
+        }
+        return accepted;
+    }
+    
+    // Replays a close, including the transfer of funds
+    void replayClose(String auctionId) {
+        Auction auction = findAuction(auctionId);
+        if (auction.close()) {
+            completeSettlement(auction, false);
+        }
+    }
+    
+    // Restores a standing maximum; the bids it led to are replayed on their own
+    void restoreProxyBid(String auctionId, String bidderId, long maxCents) {
+        ProxyBidBook book = findAuction(auctionId).openProxyBook();
+        synchronized (book) {
+            book.put(bidderId, maxCents);
+        }
+    }
+    
+    // Restores a closed auction from a snapshot, whose balances already include settlement
+    void restoreClosed(String auctionId) {
+        Auction auction = findAuction(auctionId);
+        auction.close();
+        ledger.discard(auction);
+        activeAuctions.remove(auctionId);
+        expiryWheel.cancel(auction);
+        browseIndex.remove(auction);
+        searchIndex.remove(auction);
+        scheduleArchive(auction);
+    }
+    
+    // Bulk import through AuctionCatalog: the checks of registerUser, createItem and
+    // createAuction without a login, keeping each record's own ID. Many threads may
+    // import records of one type at once.
+    Outcome importUser(User user) {
+        String usernameKey = normalize(user.getUsername());
+        String emailKey = normalize(user.getEmail());
+        if (usernameIndex.putIfAbsent(usernameKey, user.getUserKey()) != null) {
+            return Outcome.DUPLICATE_USER;
+        }
+        if (emailIndex.putIfAbsent(emailKey, user.getUserKey()) != null) {
+            usernameIndex.remove(usernameKey, user.getUserKey());
+            return Outcome.DUPLICATE_USER;
+        }
+        // The activity entry doubles as the claim on the user ID
+        if (activity.putIfAbsent(user.getUserKey(), new UserActivity()) != null) {
+            usernameIndex.remove(usernameKey, user.getUserKey());
+            emailIndex.remove(emailKey, user.getUserKey());
+            return Outcome.DUPLICATE_ID;
+        }
+        if (journal != null) {
+            journal.userRegistered(user);
+        }
+        users.put(user.getUserKey(), user);
+        return Outcome.OK;
+    }
+    
+    // The item is claimed before it is journaled; its auctions are only imported once
+    // the whole item section has been applied
+    Outcome importItem(Item item) {
+        if (users.get(item.getSellerKey()) == null) {
+            return Outcome.USER_NOT_FOUND;
+        }
+        if (items.putIfAbsent(item.getItemKey(), item) != null) {
+            return Outcome.DUPLICATE_ID;
+        }
+        if (journal != null) {
+            journal.itemCreated(item);
+        }
+        return Outcome.OK;
+    }
+    
+    Outcome importAuction(Auction auction) {
+        Item item = items.get(auction.getItemKey());
+        if (item == null) {
+            return Outcome.ITEM_NOT_FOUND;
+        }
+        if (!claimAuction(auction)) {
+            return Outcome.DUPLICATE_ID;
+        }
+        if (journal != null) {
+            journal.auctionCreated(auction, item.getSellerId());
+        }
+        addAuction(auction, item.getSellerId());
+        return Outcome.OK;
+    }
+    
+    // Reserves the auction's ID unless an open or archived auction already has it
+    private boolean claimAuction(Auction auction) {
+        AuctionArchive archived = archive;
+        if (archived != null && archived.contains(auction.getAuctionKey())) {
+            return false;
+        }
+        return auctions.putIfAbsent(auction.getAuctionKey(), auction) == null;
+    }
+    
+    // For reads that show an auction's state: whatever has ended is closed first, so the
+    // state never depends on whether the expiry scheduler is running. The wheel skips
+    // the advance while another thread is at it, so the auction itself is checked too.
+    private Auction findCurrentAuction(String auctionId) {
+        long now = System.currentTimeMillis();
+        expiryWheel.advance(now);
+        Auction auction = findAuction(auctionId);
+        if (auction != null && auction.isActive() && now > auction.getEndEpochMillis()) {
+            expireAuction(auction);
+        }
+        return auction;
+    }
+    
+    // Journal replay looks auctions up without expiring them; closes come from the journal
+    Auction replayedAuction(String auctionId) {
+        return findAuction(auctionId);
+    }
+    
+    // Callers identify entities by string ID; everything behind the API is keyed by long
+    private User findUser(String userId) {
+        return users.get(IdGenerator.parse(userId));
+    }
+    
+    private Item findItem(String itemId) {
+        return items.get(IdGenerator.parse(itemId));
+    }
+    
+    // Falls back to the archive for closed auctions that have left the heap
+    private Auction findAuction(String auctionId) {
+        long key = IdGenerator.parse(auctionId);
+        Auction auction = auctions.get(key);
+        AuctionArchive archived = archive;
+        if (auction != null || archived == null) {
+            return auction;
+        }
+        try {
+            return archived.get(key);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    Collection<User> allUsers() { return users.values(); }
+    Collection<Item> allItems() { return items.values(); }
+    Collection<Auction> allAuctions() { return auctions.values(); } // not the archived ones
+    
+    // Rebuilds the system from the latest snapshot and journal tail in the directory,
+    // then journals every further change there
+    public static AuctionSystem recover(Path directory) throws IOException {
+        AuctionSystem system = new AuctionSystem();
+        AuctionJournal.replay(directory, system);
+        system.journal = AuctionJournal.open(directory);
+        return system;
+    }
+    
+    // Bulk-loads users, items and auctions from a CSV catalog; see AuctionCatalog
+    public CatalogImportResult importCatalog(Path file) throws IOException {
+        return AuctionCatalog.load(file, this);
+    }
+    
+    // Writes users, items and open auctions as a catalog importCatalog can load
+    public long exportCatalog(Path file) throws IOException {
+        return AuctionCatalog.export(this, file);
+    }
+}
+
+// AuctionBenchmarks class measuring the AuctionSystem hot paths. Each scenario gets a
+// fresh system, runs a fixed number of operations per thread for a few warmup rounds
+// and then for the measured rounds, and reports throughput, latency per operation
+// and bytes allocated per operation. Console output from the system is muted while
+// measuring. Run it from jshell after opening this file:
+//     AuctionBenchmarks.main(new String[]{})         default sizes
+//     AuctionBenchmarks.main(new String[]{"full"})   adds listActiveAuctions at 10^6
+class AuctionBenchmarks {
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+    private static final int THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    
+    // One benchmark: setup runs before every round, op runs opsPerThread times per thread
+    private abstract static class Scenario {
+        final String name;
+        final int threads;
+        final int opsPerThread;
         
-        // Add to user's bids
-        userBids.get(currentUser.getUserId()).add(newBid.getBidId());
+        Scenario(String name, int threads, int opsPerThread) {
+            this.name = name;
+            this.threads = threads;
+            this.opsPerThread = opsPerThread;
+        }
         
-        return newBid;
+        abstract void setup();
+        abstract void op(int thread, int i);
     }
     
-    // Listing Auctions
-    public List<Auction> listActiveAuctions() {
-        List<Auction> activeAuctions = new ArrayList<>();
-        LocalDateTime now = LocalDateTime.now();
-        
-        for (Auction auction : auctions.values()) {
-            if (auction.isActive() && now.isBefore(auction.getEndTime())) {
-                activeAuctions.add(auction);
-            } else if (auction.isActive() && now.isAfter(auction.getEndTime())) {
-                auction.setActive(false);
+    public static void main(String[] args) throws InterruptedException {
+        boolean full = args.length > 0 && args[0].equals("full");
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            out.printf("%-40s %8s %14s %12s %12s%n", "benchmark", "threads", "ops/s", "ns/op", "bytes/op");
+            for (Scenario scenario : scenarios(full)) {
+                run(scenario, out);
+            }
+        } finally {
+            System.setOut(out);
+        }
+    }
+    
+    private static List<Scenario> scenarios(boolean full) {
+        List<Scenario> scenarios = new ArrayList<>();
+        scenarios.add(registerUser(1));
+        scenarios.add(registerUser(THREADS));
+        scenarios.add(login());
+        scenarios.add(placeBid("placeBid single hot auction", 1));
+        scenarios.add(placeBid("placeBid spread over 10000 auctions", 10_000));
+        for (int size : full ? new int[] {1_000, 10_000, 100_000, 1_000_000} : new int[] {1_000, 10_000, 100_000}) {
+            scenarios.add(listActiveAuctions(size));
+        }
+        scenarios.add(closeAuction());
+        scenarios.add(viewAuctionDetails(false));
+        scenarios.add(viewAuctionDetails(true));
+        return scenarios;
+    }
+    
+    private static Scenario registerUser(int threads) {
+        return new Scenario("registerUser", threads, 20_000) {
+            AuctionSystem system;
+            int round;
+            
+            void setup() {
+                system = new AuctionSystem();
+                round++;
+            }
+            
+            void op(int thread, int i) {
+                String name = "user-" + round + "-" + thread + "-" + i;
+                system.registerUser(name, name + "@example.com", "password");
+            }
+        };
+    }
+    
+    private static Scenario login() {
+        int users = 10_000;
+        return new Scenario("login", 1, 50_000) {
+            AuctionSystem system;
+            
+            void setup() {
+                system = new AuctionSystem();
+                for (int i = 0; i < users; i++) {
+                    system.registerUser("user" + i, "user" + i + "@example.com", "password");
+                }
+            }
+            
+            void op(int thread, int i) {
+                system.login("user" + (i % users) + "@example.com", "password");
+            }
+        };
+    }
+    
+    // Every thread bids ever-increasing amounts, so threads on the same auction keep
+    // outbidding each other and losing compare-and-set races
+    private static Scenario placeBid(String name, int auctionCount) {
+        return new Scenario(name, THREADS, 50_000) {
+            AuctionSystem system;
+            String[] bidders;
+            String[] auctionIds;
+            
+            void setup() {
+                system = new AuctionSystem();
+                bidders = registerBidders(system, threads);
+                auctionIds = createAuctions(system, auctionCount, 24);
+            }
+            
+            void op(int thread, int i) {
+                String auctionId = auctionIds[(int) ((i * 7919L + thread * 104729L) % auctionIds.length)];
+                system.placeBidAs(bidders[thread], auctionId, (double) i * threads + thread + 1);
+            }
+        };
+    }
+    
+    private static Scenario listActiveAuctions(int auctionCount) {
+        int ops = Math.max(5, 2_000_000 / auctionCount);
+        return new Scenario("listActiveAuctions " + auctionCount + " auctions", 1, ops) {
+            AuctionSystem system;
+            
+            void setup() {
+                if (system == null) {
+                    system = new AuctionSystem();
+                    createAuctions(system, auctionCount, 24);
+                }
+            }
+            
+            void op(int thread, int i) {
+                system.listActiveAuctions();
             }
+        };
+    }
+    
+    // Each op closes one auction with a winning bid and settles it
+    private static Scenario closeAuction() {
+        int auctions = 20_000;
+        return new Scenario("closeAuction settlement", 1, auctions) {
+            AuctionSystem system;
+            String[] auctionIds;
+            
+            void setup() {
+                system = new AuctionSystem();
+                String bidder = registerBidders(system, 1)[0];
+                auctionIds = createAuctions(system, auctions, 24);
+                for (String auctionId : auctionIds) {
+                    system.placeBidAs(bidder, auctionId, 10.0);
+                }
+            }
+            
+            void op(int thread, int i) {
+                system.closeAuction(auctionIds[i]);
+            }
+        };
+    }
+    
+    // Each op views a different auction. Cached: every auction was rendered during setup,
+    // so ops only hit the details cache. Uncached: setup bids once more on every auction,
+    // so each op builds and renders the details from the bid log.
+    private static Scenario viewAuctionDetails(boolean invalidate) {
+        int auctions = 2_000;
+        int bidsPerAuction = 200;
+        String name = "viewAuctionDetails " + (invalidate ? "uncached" : "cached") + " " + auctions + " auctions";
+        return new Scenario(name, 1, auctions) {
+            AuctionSystem system;
+            String[] bidders;
+            String[] auctionIds;
+            int round;
+            
+            void setup() {
+                if (system == null) {
+                    system = new AuctionSystem();
+                    bidders = registerBidders(system, 10);
+                    auctionIds = createAuctions(system, auctions, 24);
+                    for (int i = 0; i < bidsPerAuction; i++) {
+                        for (String auctionId : auctionIds) {
+                            system.placeBidAs(bidders[i % bidders.length], auctionId, i + 1);
+                        }
+                    }
+                }
+                round++;
+                for (String auctionId : auctionIds) {
+                    if (invalidate) {
+                        system.placeBidAs(bidders[round % bidders.length], auctionId, bidsPerAuction + round);
+                    } else {
+                        system.viewAuctionDetails(auctionId);
+                    }
+                }
+            }
+            
+            void op(int thread, int i) {
+                system.viewAuctionDetails(auctionIds[i]);
+            }
+        };
+    }
+    
+    private static String[] registerBidders(AuctionSystem system, int count) {
+        String[] ids = new String[count];
+        for (int i = 0; i < count; i++) {
+            User bidder = system.registerUser("bidder" + i, "bidder" + i + "@example.com", "password");
+            bidder.setBalance(1e15);
+            ids[i] = bidder.getUserId();
+        }
+        return ids;
+    }
+    
+    // Creates the auctions as a logged-in seller, which closeAuction also relies on
+    private static String[] createAuctions(AuctionSystem system, int count, int durationInHours) {
+        system.registerUser("seller", "seller@example.com", "password");
+        system.login("seller@example.com", "password");
+        String[] ids = new String[count];
+        for (int i = 0; i < count; i++) {
+            Item item = system.createItem("Item " + i, "Benchmark item", 1.0, "Category " + (i % 20));
+            ids[i] = system.createAuction(item.getItemId(), durationInHours).getAuctionId();
+        }
+        return ids;
+    }
+    
+    private static void run(Scenario scenario, PrintStream out) throws InterruptedException {
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            scenario.setup();
+            runRound(scenario);
+        }
+        long totalNanos = 0;
+        long totalBytes = 0;
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            scenario.setup();
+            long[] result = runRound(scenario);
+            totalNanos += result[0];
+            totalBytes += result[1];
+        }
+        long ops = (long) scenario.opsPerThread * scenario.threads * MEASURED_ROUNDS;
+        out.printf("%-40s %8d %14.0f %12.1f %12.1f%n", scenario.name, scenario.threads,
+                ops * 1e9 / totalNanos,
+                (double) totalNanos * scenario.threads / ops,
+                (double) totalBytes / ops);
+    }
+    
+    // Returns {elapsed nanos, bytes allocated by the worker threads}
+    private static long[] runRound(Scenario scenario) throws InterruptedException {
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(scenario.threads);
+        AtomicLong allocated = new AtomicLong();
+        for (int t = 0; t < scenario.threads; t++) {
+            int thread = t;
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                long before = threadBean.getCurrentThreadAllocatedBytes();
+                for (int i = 0; i < scenario.opsPerThread; i++) {
+                    scenario.op(thread, i);
+                }
+                allocated.addAndGet(threadBean.getCurrentThreadAllocatedBytes() - before);
+                done.countDown();
+            }, "benchmark-" + t);
+            worker.start();
         }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        return new long[] {System.nanoTime() - begin, allocated.get()};
+    }
+}
+
+// AuctionLoadGenerator class driving a whole AuctionSystem the way a busy site would:
+// many threads logging in, bidding, listing and closing auctions, with auction
+// popularity following a Zipf distribution and extra bids landing on auctions in their
+// final seconds. Auctions end throughout the run, so the expiry scheduler and the
+// end-of-auction bursts are part of the load. Latency is recorded per operation kind
+// from the moment the operation was due, so with a target rate a stalled system shows
+// up in the tail rather than quietly slowing the load down.
+//
+// A run can be recorded to a workload file holding the catalog and every operation
+// with its thread and due time, and replayed later against a fresh system. Replay
+// issues exactly the recorded operations on the recorded schedule. With one thread the
+// outcomes match too, apart from operations that race an auction's end, as long as
+// the recording ran at a rate the system can sustain. Run it from jshell after
+// opening this file, with key=value options (see Config for all of them):
+//     AuctionLoadGenerator.main(new String[]{"threads=8", "seconds=30", "record=/tmp/load.csv"})
+//     AuctionLoadGenerator.main(new String[]{"replay=/tmp/load.csv"})
+class AuctionLoadGenerator {
+    private static final char LOGIN = 'L';
+    private static final char BID = 'B';
+    private static final char LIST = 'A';
+    private static final char CLOSE = 'C';
+    private static final char[] KINDS = {LOGIN, BID, LIST, CLOSE};
+    private static final String[] KIND_NAMES = {"login", "placeBid", "listActiveAuctions", "closeAuction"};
+    private static final String PASSWORD = "password";
+    private static final long BALANCE_CENTS = 100_000_000_000L;
+    
+    // Run options, each settable as name=value
+    static final class Config {
+        int users = 10_000;
+        int sellers = 1_000;
+        int auctions = 50_000;
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        int seconds = 10;
+        long rate = 0;                // operations per second over all threads; 0 runs flat out
+        double zipf = 1.0;            // popularity skew; 0 spreads bids evenly
+        double snipe = 20;            // % of bids aimed at auctions about to end
+        long snipeWindowMillis = 2_000;
+        double login = 2;             // % of operations; bids take what the others leave
+        double list = 0.1;
+        double close = 0.5;
+        long seed = 42;
+        String record;                // workload file to write
+        String replay;                // workload file to run instead of generating one
         
-        return activeAuctions;
+        static Config parse(String[] args) {
+            Config config = new Config();
+            for (String arg : args) {
+                int equals = arg.indexOf('=');
+                if (equals < 0) {
+                    throw new IllegalArgumentException("Expected name=value: " + arg);
+                }
+                String value = arg.substring(equals + 1);
+                switch (arg.substring(0, equals)) {
+                    case "users": config.users = Integer.parseInt(value); break;
+                    case "sellers": config.sellers = Integer.parseInt(value); break;
+                    case "auctions": config.auctions = Integer.parseInt(value); break;
+                    case "threads": config.threads = Integer.parseInt(value); break;
+                    case "seconds": config.seconds = Integer.parseInt(value); break;
+                    case "rate": config.rate = Long.parseLong(value); break;
+                    case "zipf": config.zipf = Double.parseDouble(value); break;
+                    case "snipe": config.snipe = Double.parseDouble(value); break;
+                    case "snipeWindowMillis": config.snipeWindowMillis = Long.parseLong(value); break;
+                    case "login": config.login = Double.parseDouble(value); break;
+                    case "list": config.list = Double.parseDouble(value); break;
+                    case "close": config.close = Double.parseDouble(value); break;
+                    case "seed": config.seed = Long.parseLong(value); break;
+                    case "record": config.record = value; break;
+                    case "replay": config.replay = value; break;
+                    default: throw new IllegalArgumentException("Unknown option: " + arg);
+                }
+            }
+            return config;
+        }
     }
     
-    // View auction details with item information
-    public void viewAuctionDetails(String auctionId) {
-        Auction auction = auctions.get(auctionId);
-        if (auction == null) {
-            System.out.println("Auction not found!");
-            return;
+    // One operation: due is nanoseconds after the run started
+    private static final class Op {
+        final long due;
+        final char kind;
+        final String first;  // email, bidder or seller ID
+        final String second; // password or auction ID
+        final long cents;
+        
+        Op(long due, char kind, String first, String second, long cents) {
+            this.due = due;
+            this.kind = kind;
+            this.first = first;
+            this.second = second;
+            this.cents = cents;
         }
+    }
+    
+    // The users, items and auctions a run starts from. Auction times are offsets from
+    // the start of the run, so a replay gets auctions ending at the same moments.
+    private static final class Catalog {
+        final List<User> users = new ArrayList<>();
+        final List<Item> items = new ArrayList<>();
+        final List<String> auctionIds = new ArrayList<>();
+        final List<String> auctionItemIds = new ArrayList<>();
+        final List<Long> startOffsetMillis = new ArrayList<>();
+        final List<Long> endOffsetMillis = new ArrayList<>();
         
-        Item item = items.get(auction.getItemId());
-        User seller = users.get(item.getSellerId());
+        void addAuction(String auctionId, String itemId, long startOffset, long endOffset) {
+            auctionIds.add(auctionId);
+            auctionItemIds.add(itemId);
+            startOffsetMillis.add(startOffset);
+            endOffsetMillis.add(endOffset);
+        }
         
-        System.out.println("=== Auction Details ===");
-        System.out.println("Item: " + item.getName());
-        System.out.println("Description: " + item.getDescription());
-        System.out.println("Category: " + item.getCategory());
-        System.out.println("Seller: " + seller.getUsername());
+        // Loads the catalog with its recorded IDs, placing auction times around now
+        void load(AuctionSystem system, LocalDateTime now) {
+            for (User user : users) {
+                system.importUser(new User(user.getUserId(), user.getUsername(), user.getEmail(),
+                        PASSWORD, user.getBalanceCents()));
+            }
+            for (Item item : items) {
+                system.importItem(item);
+            }
+            for (int i = 0; i < auctionIds.size(); i++) {
+                system.importAuction(new Auction(auctionIds.get(i), auctionItemIds.get(i),
+                        now.plus(Duration.ofMillis(startOffsetMillis.get(i))),
+                        now.plus(Duration.ofMillis(endOffsetMillis.get(i)))));
+            }
+        }
+    }
+    
+    // Per-kind latencies and success counts for a run
+    static final class Report {
+        private final LatencyHistogram[] latencies = new LatencyHistogram[KINDS.length];
+        private final LongAdder[] succeeded = new LongAdder[KINDS.length];
+        private volatile long elapsedNanos;
         
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-        System.out.println("Start Time: " + auction.getStartTime().format(formatter));
-        System.out.println("End Time: " + auction.getEndTime().format(formatter));
+        Report() {
+            for (int i = 0; i < KINDS.length; i++) {
+                latencies[i] = new LatencyHistogram();
+                succeeded[i] = new LongAdder();
+            }
+        }
         
-        System.out.println("Current Highest Bid: $" + auction.getCurrentHighestBid());
+        void record(char kind, long nanos, boolean ok) {
+            int index = 0;
+            while (KINDS[index] != kind) {
+                index++;
+            }
+            latencies[index].record(nanos);
+            if (ok) {
+                succeeded[index].increment();
+            }
+        }
         
-        if (auction.getCurrentHighestBidder() != null) {
-            User highestBidder = users.get(auction.getCurrentHighestBidder());
-            System.out.println("Highest Bidder: " + highestBidder.getUsername());
-        } else {
-            System.out.println("No bids yet.");
+        public LatencyHistogram.Summary getLatency(String kind) {
+            return latencies[Arrays.asList(KIND_NAMES).indexOf(kind)].summarize();
         }
         
-        System.out.println("Status: " + (auction.isActive() ? "Active" : "Closed"));
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
         
-        System.out.println("\n--- Bid History ---");
-        List<Bid> bids = auction.getBids();
-        if (bids.isEmpty()) {
-            System.out.println("No bids yet.");
-        } else {
-            for (int i = bids.size() - 1; i >= 0; i--) {
-                Bid bid = bids.get(i);
-                User bidder = users.get(bid.getBidderId());
-                System.out.println(bid.getTimestamp().format(formatter) + 
-                                   " - " + bidder.getUsername() + 
-                                   ": $" + bid.getAmount());
+        public void print(PrintStream out) {
+            out.printf("%-20s %10s %10s %12s %10s %10s %10s %10s%n",
+                    "operation", "count", "ok", "ops/s", "p50 us", "p99 us", "p999 us", "max us");
+            long total = 0;
+            for (int i = 0; i < KINDS.length; i++) {
+                LatencyHistogram.Summary summary = latencies[i].summarize();
+                total += summary.getCount();
+                out.printf("%-20s %10d %10d %12.0f %10.1f %10.1f %10.1f %10.1f%n", KIND_NAMES[i],
+                        summary.getCount(), succeeded[i].sum(), summary.getCount() * 1e9 / elapsedNanos,
+                        summary.getP50Nanos() / 1e3, summary.getP99Nanos() / 1e3,
+                        summary.getP999Nanos() / 1e3, summary.getMaxNanos() / 1e3);
             }
+            out.printf("%-20s %10d %10s %12.0f%n", "total", total, "", total * 1e9 / elapsedNanos);
         }
     }
     
-    // Close Auction
-    public void closeAuction(String auctionId) {
-        Auction auction = auctions.get(auctionId);
-        if (auction == null) {
-            System.out.println("Auction not found!");
-            return;
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Config config = Config.parse(args);
+        Report report = config.replay != null ? replay(Path.of(config.replay)) : generate(config);
+        report.print(System.out);
+    }
+    
+    // Synthesizes a catalog and drives it for config.seconds, recording if asked to
+    public static Report generate(Config config) throws IOException, InterruptedException {
+        Random random = new Random(config.seed);
+        Catalog catalog = new Catalog();
+        for (int i = 0; i < config.users; i++) {
+            String name = "load-user-" + i;
+            catalog.users.add(new User(IdGenerator.format(IdGenerator.nextId()), name, name + "@example.com",
+                    PASSWORD, BALANCE_CENTS));
         }
-        
-        Item item = items.get(auction.getItemId());
-        if (!item.getSellerId().equals(currentUser.getUserId())) {
-            System.out.println("You can only close your own auctions!");
-            return;
+        long runMillis = TimeUnit.SECONDS.toMillis(config.seconds);
+        for (int i = 0; i < config.auctions; i++) {
+            String sellerId = catalog.users.get(i % config.sellers).getUserId();
+            Item item = new Item(IdGenerator.format(IdGenerator.nextId()), "Load item " + i,
+                    "Generated for load testing", 1 + random.nextInt(100), sellerId, "Category " + (i % 20));
+            catalog.items.add(item);
+            // About half the auctions end while the run is going
+            long endOffset = runMillis / 5 + (long) (random.nextDouble() * runMillis * 1.8);
+            catalog.addAuction(IdGenerator.format(IdGenerator.nextId()), item.getItemId(),
+                    -TimeUnit.HOURS.toMillis(1), endOffset);
         }
         
-        auction.setActive(false);
-        System.out.println("Auction closed successfully!");
+        AuctionSystem system = new AuctionSystem();
+        system.setConsoleOutput(false);
+        // Operation and auction times share one origin; operations begin once loaded
+        long start = System.nanoTime();
+        catalog.load(system, LocalDateTime.now());
+        long begin = System.nanoTime() - start;
+        Workload workload = new Workload(config, catalog, system, start);
+        List<List<Op>> recorded = new ArrayList<>();
+        for (int t = 0; t < config.threads; t++) {
+            recorded.add(config.record != null ? new ArrayList<>() : null);
+        }
+        long durationNanos = TimeUnit.SECONDS.toNanos(config.seconds);
+        double intervalNanos = config.rate > 0 ? 1e9 * config.threads / config.rate : 0;
+        Report report = run(system, config.threads, start, (thread, ops) -> {
+            Random threadRandom = new Random(config.seed * 31 + thread);
+            for (long i = 0; ; i++) {
+                long due = intervalNanos > 0
+                        ? begin + (long) ((i + (double) thread / config.threads) * intervalNanos)
+                        : System.nanoTime() - start;
+                if (due - begin >= durationNanos) {
+                    return;
+                }
+                Op op = workload.next(threadRandom, due);
+                ops.accept(op);
+                if (recorded.get(thread) != null) {
+                    recorded.get(thread).add(op);
+                }
+            }
+        });
+        if (config.record != null) {
+            write(Path.of(config.record), config.threads, catalog, recorded);
+        }
+        return report;
+    }
+    
+    // Runs a recorded workload against a fresh system
+    public static Report replay(Path file) throws IOException, InterruptedException {
+        Catalog catalog = new Catalog();
+        List<List<Op>> threads = new ArrayList<>();
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty() || line.charAt(0) == '#') {
+                    continue;
+                }
+                List<String> f = AuctionCatalog.parse(line);
+                switch (f.get(0)) {
+                    case "threads":
+                        for (int t = Integer.parseInt(f.get(1)); t > 0; t--) {
+                            threads.add(new ArrayList<>());
+                        }
+                        break;
+                    case AuctionCatalog.USER:
+                        catalog.users.add(new User(f.get(1), f.get(2), f.get(3), f.get(4), Long.parseLong(f.get(5))));
+                        break;
+                    case AuctionCatalog.ITEM:
+                        catalog.items.add(new Item(f.get(1), f.get(2), f.get(3), Double.parseDouble(f.get(4)),
+                                f.get(5), f.get(6)));
+                        break;
+                    case AuctionCatalog.AUCTION:
+                        catalog.addAuction(f.get(1), f.get(2), Long.parseLong(f.get(3)), Long.parseLong(f.get(4)));
+                        break;
+                    case "op":
+                        threads.get(Integer.parseInt(f.get(1))).add(new Op(Long.parseLong(f.get(2)), f.get(3).charAt(0),
+                                f.get(4), f.get(5), Long.parseLong(f.get(6))));
+                        break;
+                    default:
+                        throw new IOException("Unknown workload record: " + line);
+                }
+            }
+        }
         
-        if (auction.getCurrentHighestBidder() != null) {
-            User seller = users.get(item.getSellerId());
-            User buyer = users.get(auction.getCurrentHighestBidder());
-            
-            // Transfer funds
-            if (buyer.getBalance() >= auction.getCurrentHighestBid()) {
-                buyer.setBalance(buyer.getBalance() - auction.getCurrentHighestBid());
-                seller.setBalance(seller.getBalance() + auction.getCurrentHighestBid());
-                
-                System.out.println("Funds transferred from " + buyer.getUsername() + 
-                                   " to " + seller.getUsername() + 
-                                   " for $" + auction.getCurrentHighestBid());
-            } else {
-                System.out.println("Transaction failed! Buyer doesn't have enough funds.");
+        AuctionSystem system = new AuctionSystem();
+        system.setConsoleOutput(false);
+        long start = System.nanoTime();
+        catalog.load(system, LocalDateTime.now());
+        return run(system, threads.size(), start, (thread, ops) -> {
+            for (Op op : threads.get(thread)) {
+                ops.accept(op);
             }
+        });
+    }
+    
+    // Feeds each thread's operations through execute, waiting for each one's due time
+    private interface Driver {
+        void drive(int thread, Consumer<Op> ops);
+    }
+    
+    private static Report run(AuctionSystem system, int threadCount, long start, Driver driver)
+            throws InterruptedException {
+        system.startExpiryScheduler();
+        Report report = new Report();
+        long begin = System.nanoTime();
+        CountDownLatch done = new CountDownLatch(threadCount);
+        for (int t = 0; t < threadCount; t++) {
+            int thread = t;
+            Thread worker = new Thread(() -> {
+                try {
+                    driver.drive(thread, op -> {
+                        long due = start + op.due;
+                        long wait;
+                        while ((wait = due - System.nanoTime()) > 0) {
+                            LockSupport.parkNanos(wait);
+                        }
+                        boolean ok = execute(system, op);
+                        report.record(op.kind, System.nanoTime() - due, ok);
+                    });
+                } finally {
+                    done.countDown();
+                }
+            }, "load-" + t);
+            worker.start();
         }
+        done.await();
+        report.elapsedNanos = System.nanoTime() - begin;
+        system.shutdown();
+        return report;
     }
     
-    // Get current user
-    public User getCurrentUser() {
-        return currentUser;
+    private static boolean execute(AuctionSystem system, Op op) {
+        switch (op.kind) {
+            case LOGIN: {
+                Session session = system.openSession(op.first, op.second);
+                if (session == null) {
+                    return false;
+                }
+                system.logout(session);
+                return true;
+            }
+            case BID:
+                return system.tryPlaceBid(op.first, op.second, op.cents / 100.0).isAccepted();
+            case LIST:
+                system.listActiveAuctions();
+                return true;
+            case CLOSE: {
+                Auction auction = system.getAuctionById(op.second);
+                boolean wasActive = auction.isActive();
+                system.closeAuctionAs(op.first, op.second);
+                return wasActive && !auction.isActive();
+            }
+            default:
+                throw new IllegalStateException("Unknown operation " + op.kind);
+        }
     }
     
-    // Get user by ID
-    public User getUserById(String userId) {
-        return users.get(userId);
+    // Picks operations for generate: which kind by the configured mix, which auction by
+    // Zipf rank or, for sniping bids, among those ending within the snipe window, and
+    // how much to bid from the auction's live price
+    private static final class Workload {
+        private final Config config;
+        private final AuctionSystem system;
+        private final long start;
+        private final String[] userIds;
+        private final String[] emails;
+        private final String[] auctionIds;
+        private final String[] sellerIds;
+        private final long[] endNanos;        // sorted
+        private final int[] auctionsByEnd;    // auction indexes in endNanos order
+        private final double[] zipfCdf;
+        
+        Workload(Config config, Catalog catalog, AuctionSystem system, long start) {
+            this.config = config;
+            this.system = system;
+            this.start = start;
+            int users = catalog.users.size();
+            this.userIds = new String[users];
+            this.emails = new String[users];
+            for (int i = 0; i < users; i++) {
+                userIds[i] = catalog.users.get(i).getUserId();
+                emails[i] = catalog.users.get(i).getEmail();
+            }
+            int auctions = catalog.auctionIds.size();
+            this.auctionIds = catalog.auctionIds.toArray(new String[0]);
+            this.sellerIds = new String[auctions];
+            for (int i = 0; i < auctions; i++) {
+                sellerIds[i] = catalog.items.get(i).getSellerId();
+            }
+            Integer[] byEnd = new Integer[auctions];
+            for (int i = 0; i < auctions; i++) {
+                byEnd[i] = i;
+            }
+            Arrays.sort(byEnd, Comparator.comparingLong(catalog.endOffsetMillis::get));
+            this.auctionsByEnd = new int[auctions];
+            this.endNanos = new long[auctions];
+            for (int i = 0; i < auctions; i++) {
+                auctionsByEnd[i] = byEnd[i];
+                endNanos[i] = TimeUnit.MILLISECONDS.toNanos(catalog.endOffsetMillis.get(byEnd[i]));
+            }
+            this.zipfCdf = new double[auctions];
+            double sum = 0;
+            for (int rank = 0; rank < auctions; rank++) {
+                sum += 1 / Math.pow(rank + 1, config.zipf);
+                zipfCdf[rank] = sum;
+            }
+            for (int rank = 0; rank < auctions; rank++) {
+                zipfCdf[rank] /= sum;
+            }
+        }
+        
+        Op next(Random random, long due) {
+            double roll = random.nextDouble() * 100;
+            if (roll < config.login) {
+                return new Op(due, LOGIN, emails[random.nextInt(emails.length)], PASSWORD, 0);
+            }
+            roll -= config.login;
+            if (roll < config.list) {
+                return new Op(due, LIST, "", "", 0);
+            }
+            roll -= config.list;
+            if (roll < config.close) {
+                int auction = popular(random);
+                return new Op(due, CLOSE, sellerIds[auction], auctionIds[auction], 0);
+            }
+            int auction = random.nextDouble() * 100 < config.snipe ? ending(random, due) : popular(random);
+            int bidder = random.nextInt(userIds.length);
+            if (userIds[bidder].equals(sellerIds[auction])) {
+                bidder = (bidder + 1) % userIds.length;
+            }
+            long price = system.getAuctionById(auctionIds[auction]).getBidState().getAmountCents();
+            long amount = price + ProxyBidBook.increment(price) * (1 + random.nextInt(3));
+            return new Op(due, BID, userIds[bidder], auctionIds[auction], amount);
+        }
+        
+        // Auction index by popularity; rank r is picked with weight 1 / (r + 1)^zipf
+        private int popular(Random random) {
+            int rank = Arrays.binarySearch(zipfCdf, random.nextDouble());
+            return Math.min(rank < 0 ? -rank - 1 : rank, zipfCdf.length - 1);
+        }
+        
+        // An auction ending within the snipe window, or a popular one if none is
+        private int ending(Random random, long due) {
+            long now = Math.max(due, System.nanoTime() - start);
+            int from = lowerBound(now);
+            int to = lowerBound(now + TimeUnit.MILLISECONDS.toNanos(config.snipeWindowMillis));
+            return to > from ? auctionsByEnd[from + random.nextInt(to - from)] : popular(random);
+        }
+        
+        private int lowerBound(long nanos) {
+            int low = 0;
+            int high = endNanos.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (endNanos[middle] < nanos) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
     }
     
-    // Get item by ID
-    public Item getItemById(String itemId) {
-        return items.get(itemId);
+    private static void write(Path file, int threadCount, Catalog catalog, List<List<Op>> recorded) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("# auction load workload\n");
+            AuctionCatalog.writeRecord(out, "threads", Integer.toString(threadCount));
+            for (User user : catalog.users) {
+                AuctionCatalog.writeRecord(out, AuctionCatalog.USER, user.getUserId(), user.getUsername(),
+                        user.getEmail(), user.getPassword(), Long.toString(user.getBalanceCents()));
+            }
+            for (Item item : catalog.items) {
+                AuctionCatalog.writeRecord(out, AuctionCatalog.ITEM, item.getItemId(), item.getName(),
+                        item.getDescription(), Double.toString(item.getStartingPrice()), item.getSellerId(),
+                        item.getCategory());
+            }
+            for (int i = 0; i < catalog.auctionIds.size(); i++) {
+                AuctionCatalog.writeRecord(out, AuctionCatalog.AUCTION, catalog.auctionIds.get(i),
+                        catalog.auctionItemIds.get(i), Long.toString(catalog.startOffsetMillis.get(i)),
+                        Long.toString(catalog.endOffsetMillis.get(i)));
+            }
+            for (int t = 0; t < recorded.size(); t++) {
+                for (Op op : recorded.get(t)) {
+                    AuctionCatalog.writeRecord(out, "op", Integer.toString(t), Long.toString(op.due),
+                            String.valueOf(op.kind), op.first, op.second, Long.toString(op.cents));
+                }
+            }
+        }
     }
 }
 